@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.api;
+
+import jakarta.mail.internet.InternetAddress;
+
+/**
+ * Outcome of validating a single address, either the parsed address or the reason it was rejected.
+ */
+public class AddressResult {
+
+    private final InternetAddress address;
+    private final String error;
+
+    private AddressResult(InternetAddress address, String error) {
+        this.address = address;
+        this.error = error;
+    }
+
+    public static AddressResult valid(InternetAddress address) {
+        return new AddressResult(address, null);
+    }
+
+    public static AddressResult invalid(String error) {
+        return new AddressResult(null, error);
+    }
+
+    /**
+     * Get the parsed address
+     *
+     * @return the address, or null if it was invalid
+     */
+    public InternetAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Get the reason the address was rejected
+     *
+     * @return the reason, or null if the address is valid
+     */
+    public String getError() {
+        return error;
+    }
+
+    public boolean isValid() {
+        return address != null;
+    }
+}
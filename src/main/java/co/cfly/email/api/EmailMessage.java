@@ -9,7 +9,10 @@
 
 package co.cfly.email.api;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -24,6 +27,7 @@ import jakarta.mail.internet.InternetAddress;
 import jakarta.xml.bind.annotation.XmlElement;
 import jakarta.xml.bind.annotation.XmlElementWrapper;
 import jakarta.xml.bind.annotation.XmlRootElement;
+import jakarta.xml.bind.annotation.XmlTransient;
 import jakarta.xml.bind.annotation.XmlType;
 
 /**
@@ -34,6 +38,8 @@ import jakarta.xml.bind.annotation.XmlType;
         "readReceiptAddresses", "subject", "textBody", "htmlBody", "headers", "customVariables", "rootContentType", "type", "trackClicks", "attachments" })
 public class EmailMessage implements Serializable {
 
+    private static final long serialVersionUID = 1L;
+
     private String charset = Charset.defaultCharset().name();
     private ContentType rootContentType = ContentType.MIXED;
     private EmailMessageType type = EmailMessageType.STANDARD;
@@ -50,6 +56,7 @@ public class EmailMessage implements Serializable {
     private String subject;
     private String textBody;
     private String htmlBody;
+    private transient DeferredBody deferredHtmlBody;
 
     private List<BaseAttachment> attachments = new ArrayList<>();
 
@@ -281,6 +288,51 @@ public class EmailMessage implements Serializable {
         this.htmlBody = htmlBody;
     }
 
+    /**
+     * Get the HTML Body which is rendered as the message is written. It takes precedence over the String HTML Body and is
+     * rendered into it when the message is serialized.
+     *
+     * @return The deferred HTML Body, or null
+     */
+    @XmlTransient
+    public DeferredBody getDeferredHtmlBody() {
+        return deferredHtmlBody;
+    }
+
+    /**
+     * Set an HTML Body which is rendered as the message is written
+     *
+     * @param deferredHtmlBody Deferred HTML Body to be set
+     */
+    public void setDeferredHtmlBody(DeferredBody deferredHtmlBody) {
+        this.deferredHtmlBody = deferredHtmlBody;
+    }
+
+    /**
+     * Render any deferred HTML Body into the String HTML Body, for anything which needs the HTML before the message is
+     * written, such as spooling or comparing messages
+     */
+    public void renderDeferredHtmlBody() {
+        if (deferredHtmlBody == null) {
+            return;
+        }
+        StringWriter writer = new StringWriter();
+        try {
+            deferredHtmlBody.writeTo(writer);
+        }
+        catch (IOException e) {
+            throw new TemplatingException("Unable to render deferred HTML body", e);
+        }
+        htmlBody = writer.toString();
+        deferredHtmlBody = null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        // The deferred body is not serializable, send it rendered
+        renderDeferredHtmlBody();
+        out.defaultWriteObject();
+    }
+
     /**
      * Get the collection of InternetAddress which are Delivery Reciept addresses
      *
@@ -21,6 +21,8 @@ import jakarta.xml.bind.annotation.XmlElement;
 
 public class Header implements Serializable {
 
+    private static final long serialVersionUID = 1L;
+
     private String name;
     private String value;
 
@@ -0,0 +1,36 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.api;
+
+/**
+ * Records which messages have been sent so that retries do not deliver them twice.
+ */
+public interface IdempotencyStore {
+
+    /**
+     * Reserve a key before sending
+     *
+     * @return false if the key has already been sent or is currently being sent
+     */
+    boolean reserve(String key);
+
+    /**
+     * Mark a reserved key as sent
+     */
+    void complete(String key);
+
+    /**
+     * Release a reserved key after a failed send so that it can be retried
+     */
+    void release(String key);
+}
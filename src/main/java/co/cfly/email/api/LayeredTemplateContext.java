@@ -0,0 +1,153 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.api;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Template context made of a shared read only base and a small per message overlay. Lookups fall through from the
+ * overlay to the base, and writes only ever go to the overlay, so one large model can be shared by any number of messages
+ * without being copied.
+ */
+public class LayeredTemplateContext extends AbstractMap<String, Object> {
+
+    private final Map<String, Object> base;
+    private final Map<String, Object> overlay;
+
+    public LayeredTemplateContext(Map<String, Object> base) {
+        this(base, new HashMap<>());
+    }
+
+    public LayeredTemplateContext(Map<String, Object> base, Map<String, Object> overlay) {
+        this.base = Collections.unmodifiableMap(base);
+        this.overlay = overlay;
+    }
+
+    /**
+     * Get the shared base, which must not be modified
+     */
+    public Map<String, Object> getBase() {
+        return base;
+    }
+
+    /**
+     * Get the per message values
+     */
+    public Map<String, Object> getOverlay() {
+        return overlay;
+    }
+
+    @Override
+    public Object get(Object key) {
+        Object value = overlay.get(key);
+        return value != null || overlay.containsKey(key) ? value : base.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return overlay.containsKey(key) || base.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        Object previous = get(key);
+        overlay.put(key, value);
+        return previous;
+    }
+
+    /**
+     * Remove a value from the overlay, the base is left unchanged
+     */
+    @Override
+    public Object remove(Object key) {
+        return overlay.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        overlay.clear();
+    }
+
+    @Override
+    public int size() {
+        int size = base.size();
+        for (String key : overlay.keySet()) {
+            if (!base.containsKey(key)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<>() {
+
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new LayeredIterator();
+            }
+
+            @Override
+            public int size() {
+                return LayeredTemplateContext.this.size();
+            }
+        };
+    }
+
+    /**
+     * Iterates the overlay, then the base entries it does not shadow
+     */
+    private class LayeredIterator implements Iterator<Entry<String, Object>> {
+
+        private final Iterator<Entry<String, Object>> overlayEntries = overlay.entrySet().iterator();
+        private final Iterator<Entry<String, Object>> baseEntries = base.entrySet().iterator();
+        private Entry<String, Object> next;
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (overlayEntries.hasNext()) {
+                next = overlayEntries.next();
+                return true;
+            }
+            while (baseEntries.hasNext()) {
+                Entry<String, Object> entry = baseEntries.next();
+                if (!overlay.containsKey(entry.getKey())) {
+                    next = entry;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry<String, Object> entry = next;
+            next = null;
+            return entry;
+        }
+    }
+}
@@ -14,8 +14,10 @@ package co.cfly.email.api;
 
 import java.io.File;
 import java.io.InputStream;
+import java.time.Instant;
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import jakarta.mail.internet.InternetAddress;
 
@@ -171,6 +173,26 @@ public interface MailMessage {
      */
     MailMessage bcc(Collection<? extends EmailContact> emailContacts);
 
+    /**
+     * Bulk add recipients, intended for large lists. Invalid addresses are skipped and reported to the handler instead of
+     * throwing.
+     *
+     * @param recipientType  TO, CC or BCC
+     * @param addresses      Addresses eg "john.doe@example.com" or "John Doe<john.doe@example.com>"
+     * @param invalidHandler Receives each rejected address, may be null to ignore them
+     */
+    MailMessage addRecipientAddresses(RecipientType recipientType, Iterable<String> addresses, InvalidAddressHandler invalidHandler);
+
+    /**
+     * Bulk add recipients, intended for large lists. Invalid addresses are skipped and reported to the handler instead of
+     * throwing.
+     *
+     * @param recipientType  TO, CC or BCC
+     * @param emailContacts  {@link EmailContact}s to be added
+     * @param invalidHandler Receives each rejected address, may be null to ignore them
+     */
+    MailMessage addRecipients(RecipientType recipientType, Iterable<? extends EmailContact> emailContacts, InvalidAddressHandler invalidHandler);
+
     /**
      * Set the "Envelope From" address which is used for error messages
      */
@@ -285,6 +307,31 @@ public interface MailMessage {
 
     MailMessage createTextAlternative(boolean value);
 
+    /**
+     * Render a {@link StreamingTemplateProvider} HTML template directly into the MIME body as the message is written,
+     * instead of holding it as a String. Ignored when a text alternative is created from the HTML. The HTML is then not
+     * available from {@link EmailMessage#getHtmlBody()} until {@link EmailMessage#renderDeferredHtmlBody()}. It is
+     * rendered up front when the message is scheduled or serialized.
+     */
+    MailMessage streamHtml(boolean value);
+
+    /**
+     * Render the subject, text and HTML templates concurrently on virtual threads, and generate any text alternative as
+     * soon as the HTML is ready. Each template sees its own copy on write view of the context.
+     */
+    MailMessage parallelMerge(boolean value);
+
+    /**
+     * Render the subject, text and HTML templates concurrently on the given {@link Executor}, null merges them in turn
+     */
+    MailMessage parallelMerge(Executor executor);
+
+    /**
+     * Pass the HTML body through a processor, eg to inline CSS, after the HTML template is merged and before any text
+     * alternative is created. The HTML is then always rendered to a String, {@link #streamHtml(boolean)} is ignored.
+     */
+    MailMessage postProcessHtml(HtmlPostProcessor processor);
+
     /**
      * Sets the body of the message to a HTML body with a plain text alternative
      *
@@ -332,6 +379,15 @@ public interface MailMessage {
      */
     EmailMessage send();
 
+    /**
+     * Merge the templates and schedule the message to be sent later
+     *
+     * @param mailScheduler {@link MailScheduler} which will send the message
+     * @param sendAt        when to send the message
+     * @return id of the scheduled message, which can be used to cancel it
+     */
+    String sendAt(MailScheduler mailScheduler, Instant sendAt);
+
     // Templating Specific
 
     /**
@@ -376,6 +432,14 @@ public interface MailMessage {
      */
     MailMessage put(Map<String, Object> values);
 
+    /**
+     * Use a shared, read only model as the base of the templating engines context. Values placed with put are layered
+     * over it without the shared model being copied, so one instance can back any number of messages.
+     *
+     * @param sharedContext {@code Map<String, Object>} which must not be modified while messages use it
+     */
+    MailMessage sharedContext(Map<String, Object> sharedContext);
+
     MailMessage enableClickTracking();
 
     MailMessage disableClickTracking();
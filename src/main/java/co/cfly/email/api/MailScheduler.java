@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.api;
+
+import java.time.Instant;
+
+/**
+ * Sends {@link EmailMessage}s at a future time
+ */
+public interface MailScheduler {
+
+    /**
+     * Schedule a message to be sent
+     *
+     * @param emailMessage message to send, templates must already be merged
+     * @param sendAt       when to send, a time in the past sends as soon as possible
+     * @return id which can be passed to {@link #cancel(String)}
+     */
+    String schedule(EmailMessage emailMessage, Instant sendAt);
+
+    /**
+     * Cancel a scheduled message
+     *
+     * @return false if the message was not found, for example because it has already been sent
+     */
+    boolean cancel(String id);
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.api;
+
+/**
+ * Outcome of sending a single {@link EmailMessage}.
+ */
+public class SendResult {
+
+    private final EmailMessage emailMessage;
+    private final Throwable failure;
+
+    private SendResult(EmailMessage emailMessage, Throwable failure) {
+        this.emailMessage = emailMessage;
+        this.failure = failure;
+    }
+
+    public static SendResult sent(EmailMessage emailMessage) {
+        return new SendResult(emailMessage, null);
+    }
+
+    public static SendResult failed(EmailMessage emailMessage, Throwable failure) {
+        return new SendResult(emailMessage, failure);
+    }
+
+    /**
+     * Get the {@link EmailMessage} this result belongs to
+     */
+    public EmailMessage getEmailMessage() {
+        return emailMessage;
+    }
+
+    /**
+     * Get the reason the send failed
+     *
+     * @return the failure, or null if the message was sent
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public boolean isSuccess() {
+        return failure == null;
+    }
+}
@@ -34,4 +34,54 @@ public interface SessionConfig {
     Boolean getEnableSsl();
 
     Boolean getAuth();
+
+    /**
+     * Socket connect timeout in milliseconds. {@code null} leaves the jakarta.mail default (infinite) in place.
+     */
+    default Integer getConnectTimeout() {
+        return null;
+    }
+
+    /**
+     * Socket read timeout in milliseconds. {@code null} leaves the jakarta.mail default (infinite) in place.
+     */
+    default Integer getReadTimeout() {
+        return null;
+    }
+
+    /**
+     * Socket write timeout in milliseconds. {@code null} leaves the jakarta.mail default (infinite) in place.
+     */
+    default Integer getWriteTimeout() {
+        return null;
+    }
+
+    /**
+     * Overall deadline in milliseconds for sending a single message, covering connect, handshake and transfer. When exceeded the
+     * in-flight transfer is aborted and a {@link SendFailedException} is raised. {@code null} disables the deadline.
+     */
+    default Integer getSendTimeout() {
+        return null;
+    }
+
+    /**
+     * Domain (d= tag) to DKIM sign outgoing messages for. DKIM signing is enabled when domain, selector and private key are set.
+     */
+    default String getDkimDomain() {
+        return null;
+    }
+
+    /**
+     * DKIM selector (s= tag) under which the public key is published
+     */
+    default String getDkimSelector() {
+        return null;
+    }
+
+    /**
+     * PKCS#8 PEM encoded RSA private key used for DKIM signing
+     */
+    default String getDkimPrivateKey() {
+        return null;
+    }
 }
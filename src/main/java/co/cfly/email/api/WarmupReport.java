@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.api;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timings and failures of a mail pipeline warm-up
+ */
+public class WarmupReport {
+
+    private final Map<String, Duration> stages;
+    private final Map<String, Throwable> failures;
+
+    public WarmupReport(Map<String, Duration> stages, Map<String, Throwable> failures) {
+        this.stages = Collections.unmodifiableMap(new LinkedHashMap<>(stages));
+        this.failures = Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    }
+
+    /**
+     * Get the time taken by each stage, in the order they ran
+     */
+    public Map<String, Duration> getStages() {
+        return stages;
+    }
+
+    /**
+     * Get the errors raised during warm-up, keyed by stage or template name
+     */
+    public Map<String, Throwable> getFailures() {
+        return failures;
+    }
+
+    public Duration getTotal() {
+        Duration total = Duration.ZERO;
+        for (Duration duration : stages.values()) {
+            total = total.plus(duration);
+        }
+        return total;
+    }
+
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Warm-up took ").append(getTotal().toMillis()).append("ms (");
+        String separator = "";
+        for (Map.Entry<String, Duration> stage : stages.entrySet()) {
+            sb.append(separator).append(stage.getKey()).append(' ').append(stage.getValue().toMillis()).append("ms");
+            separator = ", ";
+        }
+        sb.append(')');
+        if (!failures.isEmpty()) {
+            sb.append(", failed: ").append(failures.keySet());
+        }
+        return sb.toString();
+    }
+}
@@ -20,6 +20,7 @@ import java.util.UUID;
 
 import co.cfly.email.api.ContentDisposition;
 import co.cfly.email.api.ContentType;
+import co.cfly.email.api.DeferredBody;
 import co.cfly.email.api.Header;
 import co.cfly.email.api.InvalidAddressException;
 import co.cfly.email.api.MailHeader;
@@ -27,6 +28,7 @@ import co.cfly.email.api.MessagePriority;
 import co.cfly.email.api.RecipientType;
 import co.cfly.email.impl.attachments.AttachmentPart;
 import co.cfly.email.impl.attachments.BaseAttachment;
+import co.cfly.email.impl.util.DeferredBodyDataHandler;
 import co.cfly.email.impl.util.MailUtility;
 import jakarta.mail.MessagingException;
 import jakarta.mail.Session;
@@ -241,9 +243,20 @@ public class BaseMailMessage {
     }
 
     public void setHTML(String html) {
+        setHTML(buildHTMLBodyPart(html));
+    }
+
+    /**
+     * Set an HTML body which is rendered as the message is written
+     */
+    public void setHTML(DeferredBody html) {
+        setHTML(buildHTMLBodyPart(html));
+    }
+
+    private void setHTML(MimeBodyPart htmlBodyPart) {
         MimeBodyPart relatedBodyPart = new MimeBodyPart();
         try {
-            relatedMultipart.addBodyPart(buildHTMLBodyPart(html));
+            relatedMultipart.addBodyPart(htmlBodyPart);
             relatedBodyPart.setContent(relatedMultipart);
             rootMultipart.addBodyPart(relatedBodyPart);
         }
@@ -262,6 +275,17 @@ public class BaseMailMessage {
     }
 
     public void setHTMLTextAlt(String html, String text) {
+        setHTMLTextAlt(buildHTMLBodyPart(html), text);
+    }
+
+    /**
+     * Set an HTML body which is rendered as the message is written, with a plain text alternative
+     */
+    public void setHTMLTextAlt(DeferredBody html, String text) {
+        setHTMLTextAlt(buildHTMLBodyPart(html), text);
+    }
+
+    private void setHTMLTextAlt(MimeBodyPart htmlBodyPart, String text) {
         MimeBodyPart mixedBodyPart = new MimeBodyPart();
 
         MimeBodyPart relatedBodyPart = new MimeBodyPart();
@@ -272,7 +296,7 @@ public class BaseMailMessage {
             // Text must be the first or some HTML capable clients will fail to
             // render HTML bodyPart.
             alternativeMultiPart.addBodyPart(buildTextBodyPart(text));
-            alternativeMultiPart.addBodyPart(buildHTMLBodyPart(html));
+            alternativeMultiPart.addBodyPart(htmlBodyPart);
 
             relatedBodyPart.setContent(alternativeMultiPart);
 
@@ -325,6 +349,22 @@ public class BaseMailMessage {
         return htmlBodyPart;
     }
 
+    private MimeBodyPart buildHTMLBodyPart(DeferredBody html) {
+        MimeBodyPart htmlBodyPart = new MimeBodyPart();
+
+        try {
+            htmlBodyPart.setDisposition(ContentDisposition.INLINE.headerValue());
+            htmlBodyPart.setDataHandler(new DeferredBodyDataHandler(html, "text/html", charset));
+            // Set explicitly, otherwise jakarta.mail renders the body an extra time to pick an encoding
+            htmlBodyPart.setHeader("Content-Transfer-Encoding", "quoted-printable");
+        }
+        catch (MessagingException e) {
+            throw new RuntimeException("Unable to build HTMLBodyPart", e);
+        }
+
+        return htmlBodyPart;
+    }
+
     public void addAttachment(BaseAttachment emailAttachment) {
         String contentId = emailAttachment.getContentDisposition() == ContentDisposition.INLINE ? emailAttachment.getContentId() : null;
         AttachmentPart attachment = new AttachmentPart(emailAttachment.getBytes(), contentId, emailAttachment.getFileName(), emailAttachment.getMimeType(), emailAttachment.getHeaders(),
@@ -0,0 +1,342 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.EmailMessageType;
+import co.cfly.email.api.MailTransporter;
+import co.cfly.email.api.SendResult;
+import co.cfly.email.api.TemplateProvider;
+import jakarta.mail.Message.RecipientType;
+import jakarta.mail.internet.InternetAddress;
+
+/**
+ * {@link MailTransporter} which coalesces messages from the same sender to the same recipient into a single digest.
+ * <p>
+ * The first message to a recipient opens a window, every further message to them within the window is buffered, and
+ * when the window closes the buffered messages are merged into one {@link EmailMessage} and sent. A window holding a
+ * single message sends it unchanged. A message with several recipients is fanned out into one copy per recipient, each
+ * addressed only to that recipient in the field it had, so it joins each recipient's own digest. Messages with
+ * attachments or of a type other than {@link EmailMessageType#STANDARD} are sent straight away.
+ * <p>
+ * A buffered message has not been sent when {@link #send(EmailMessage)} returns. The outcome is reported later, one
+ * {@link SendResult} per buffered message or per recipient copy, to the listener set with
+ * {@link #setResultListener(Consumer)}; without a listener a failed digest is only logged.
+ * <p>
+ * The digest templates are merged with {@code messages}, the list of buffered {@link EmailMessage}s, and {@code count}.
+ * Buffers are striped by sender and recipient so concurrent senders only contend when they hash to the same stripe.
+ */
+public class DigestMailTransporter implements MailTransporter, Closeable {
+
+    static final Logger log = Logger.getLogger(DigestMailTransporter.class.getName());
+
+    private static final int STRIPES = 32;
+
+    private final MailTransporter mailTransporter;
+    private final long windowMillis;
+    private final TemplateProvider subjectTemplate;
+    private final TemplateProvider textTemplate;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("simple-email-digest").factory());
+    private final ExecutorService sendExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private TemplateProvider htmlTemplate;
+    private int maxMessages = 100;
+    private volatile Consumer<SendResult> resultListener;
+
+    public DigestMailTransporter(MailTransporter mailTransporter, Duration window, TemplateProvider subjectTemplate, TemplateProvider textTemplate) {
+        this.mailTransporter = mailTransporter;
+        this.windowMillis = window.toMillis();
+        this.subjectTemplate = subjectTemplate;
+        this.textTemplate = textTemplate;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Optional template for an HTML version of the digest
+     */
+    public void setHtmlTemplate(TemplateProvider htmlTemplate) {
+        this.htmlTemplate = htmlTemplate;
+    }
+
+    /**
+     * Send the digest early once this many messages are buffered for the recipients, default 100
+     */
+    public void setMaxMessages(int maxMessages) {
+        this.maxMessages = maxMessages;
+    }
+
+    /**
+     * Receives the outcome of every buffered message once its digest has been sent or has failed. Called on the thread
+     * which sent the digest.
+     */
+    public void setResultListener(Consumer<SendResult> resultListener) {
+        this.resultListener = resultListener;
+    }
+
+    /**
+     * Buffer the message for its recipients' digests, or send it straight away if it can't be coalesced
+     */
+    @Override
+    public EmailMessage send(EmailMessage emailMessage) {
+        Map<String, Recipient> recipients = recipients(emailMessage);
+        if (emailMessage.getType() != EmailMessageType.STANDARD || !emailMessage.getAttachments().isEmpty() || recipients.isEmpty()) {
+            return mailTransporter.send(emailMessage);
+        }
+
+        String sender = senderKey(emailMessage);
+        if (recipients.size() == 1) {
+            buffer(sender + recipients.keySet().iterator().next(), emailMessage);
+            return emailMessage;
+        }
+
+        // Every copy would render it again
+        emailMessage.renderDeferredHtmlBody();
+        for (Map.Entry<String, Recipient> recipient : recipients.entrySet()) {
+            buffer(sender + recipient.getKey(), forRecipient(emailMessage, recipient.getValue()));
+        }
+        return emailMessage;
+    }
+
+    private void buffer(String key, EmailMessage emailMessage) {
+        Stripe stripe = stripes[Math.floorMod(key.hashCode(), STRIPES)];
+        Digest full = null;
+
+        synchronized (stripe) {
+            Digest digest = stripe.digests.get(key);
+            if (digest == null) {
+                digest = new Digest();
+                stripe.digests.put(key, digest);
+                Digest opened = digest;
+                digest.window = timer.schedule(() -> flush(stripe, key, opened), windowMillis, TimeUnit.MILLISECONDS);
+            }
+            digest.messages.add(emailMessage);
+
+            if (digest.messages.size() >= maxMessages) {
+                stripe.digests.remove(key);
+                digest.window.cancel(false);
+                full = digest;
+            }
+        }
+
+        if (full != null) {
+            Digest digest = full;
+            sendExecutor.execute(() -> sendDigest(digest));
+        }
+    }
+
+    /**
+     * Number of messages currently buffered
+     */
+    public int getPending() {
+        int pending = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Digest digest : stripe.digests.values()) {
+                    pending += digest.messages.size();
+                }
+            }
+        }
+        return pending;
+    }
+
+    private void flush(Stripe stripe, String key, Digest digest) {
+        synchronized (stripe) {
+            // The digest may already have been sent early and replaced by a new window
+            if (!stripe.digests.remove(key, digest)) {
+                return;
+            }
+        }
+        sendExecutor.execute(() -> sendDigest(digest));
+    }
+
+    private void sendDigest(Digest digest) {
+        Throwable failure = null;
+        try {
+            mailTransporter.send(digest.messages.size() == 1 ? digest.messages.get(0) : merge(digest.messages));
+        }
+        catch (RuntimeException e) {
+            failure = e;
+        }
+
+        Consumer<SendResult> listener = resultListener;
+        if (listener == null) {
+            if (failure != null) {
+                log.log(Level.SEVERE, "Failed to send digest of %d messages".formatted(digest.messages.size()), failure);
+            }
+            return;
+        }
+        for (EmailMessage emailMessage : digest.messages) {
+            try {
+                listener.accept(failure == null ? SendResult.sent(emailMessage) : SendResult.failed(emailMessage, failure));
+            }
+            catch (RuntimeException e) {
+                log.log(Level.WARNING, "Digest result listener failed", e);
+            }
+        }
+    }
+
+    private EmailMessage merge(List<EmailMessage> messages) {
+        EmailMessage first = messages.get(0);
+        EmailMessage digest = new EmailMessage();
+        digest.setCharset(first.getCharset());
+        digest.setImportance(first.getImportance());
+        digest.setEnvelopeFrom(first.getEnvelopeFrom());
+        digest.getFromAddresses().addAll(first.getFromAddresses());
+        digest.getReplyToAddresses().addAll(first.getReplyToAddresses());
+        digest.getToAddresses().addAll(first.getToAddresses());
+        digest.getCcAddresses().addAll(first.getCcAddresses());
+        digest.getBccAddresses().addAll(first.getBccAddresses());
+
+        Map<String, Object> context = new HashMap<>();
+        context.put("messages", messages);
+        context.put("count", messages.size());
+
+        digest.setSubject(subjectTemplate.merge(context));
+        digest.setTextBody(textTemplate.merge(context));
+        if (htmlTemplate != null) {
+            digest.setHtmlBody(htmlTemplate.merge(context));
+        }
+        return digest;
+    }
+
+    /**
+     * The digest is sent as the first message, so only messages from the same sender can share it. Addresses are compared
+     * case insensitively and in sorted order.
+     */
+    private static String senderKey(EmailMessage emailMessage) {
+        StringBuilder key = new StringBuilder();
+        appendAddresses(key, emailMessage.getFromAddresses());
+        key.append('|');
+        appendAddresses(key, emailMessage.getReplyToAddresses());
+        key.append('|');
+        if (emailMessage.getEnvelopeFrom() != null) {
+            key.append(normalize(emailMessage.getEnvelopeFrom()));
+        }
+        return key.append('|').toString();
+    }
+
+    private static void appendAddresses(StringBuilder key, Set<InternetAddress> addresses) {
+        Set<String> sorted = new TreeSet<>();
+        for (InternetAddress address : addresses) {
+            sorted.add(normalize(address));
+        }
+        for (String address : sorted) {
+            key.append(address).append(',');
+        }
+    }
+
+    /**
+     * Each distinct recipient by normalized address, keeping the first field it appears in
+     */
+    private static Map<String, Recipient> recipients(EmailMessage emailMessage) {
+        Map<String, Recipient> recipients = new LinkedHashMap<>();
+        for (InternetAddress address : emailMessage.getToAddresses()) {
+            recipients.putIfAbsent(normalize(address), new Recipient(RecipientType.TO, address));
+        }
+        for (InternetAddress address : emailMessage.getCcAddresses()) {
+            recipients.putIfAbsent(normalize(address), new Recipient(RecipientType.CC, address));
+        }
+        for (InternetAddress address : emailMessage.getBccAddresses()) {
+            recipients.putIfAbsent(normalize(address), new Recipient(RecipientType.BCC, address));
+        }
+        return recipients;
+    }
+
+    private static String normalize(InternetAddress address) {
+        return address.getAddress().toLowerCase(Locale.ROOT);
+    }
+
+    private static EmailMessage forRecipient(EmailMessage emailMessage, Recipient recipient) {
+        EmailMessage copy = new EmailMessage();
+        copy.setCharset(emailMessage.getCharset());
+        copy.setRootContentType(emailMessage.getRootContentType());
+        copy.setType(emailMessage.getType());
+        copy.setImportance(emailMessage.getImportance());
+        copy.setEnvelopeFrom(emailMessage.getEnvelopeFrom());
+        copy.getFromAddresses().addAll(emailMessage.getFromAddresses());
+        copy.getReplyToAddresses().addAll(emailMessage.getReplyToAddresses());
+        if (recipient.type() == RecipientType.TO) {
+            copy.getToAddresses().add(recipient.address());
+        }
+        else if (recipient.type() == RecipientType.CC) {
+            copy.getCcAddresses().add(recipient.address());
+        }
+        else {
+            copy.getBccAddresses().add(recipient.address());
+        }
+        copy.getHeaders().addAll(emailMessage.getHeaders());
+        copy.getCustomVariables().putAll(emailMessage.getCustomVariables());
+        copy.getDeliveryReceiptAddresses().addAll(emailMessage.getDeliveryReceiptAddresses());
+        copy.getReadReceiptAddresses().addAll(emailMessage.getReadReceiptAddresses());
+        copy.setSubject(emailMessage.getSubject());
+        copy.setTextBody(emailMessage.getTextBody());
+        copy.setHtmlBody(emailMessage.getHtmlBody());
+        copy.setTrackClicks(emailMessage.isTrackClicks());
+        return copy;
+    }
+
+    /**
+     * Send everything still buffered and stop
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        for (Stripe stripe : stripes) {
+            List<Digest> remaining;
+            synchronized (stripe) {
+                remaining = new ArrayList<>(stripe.digests.values());
+                stripe.digests.clear();
+            }
+            for (Digest digest : remaining) {
+                sendExecutor.execute(() -> sendDigest(digest));
+            }
+        }
+        sendExecutor.close();
+    }
+
+    private record Recipient(RecipientType type, InternetAddress address) {
+    }
+
+    private static class Stripe {
+
+        private final Map<String, Digest> digests = new HashMap<>();
+    }
+
+    private static class Digest {
+
+        private final List<EmailMessage> messages = new ArrayList<>();
+        private ScheduledFuture<?> window;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.MailTransporter;
+import co.cfly.email.impl.util.Hashing;
+import jakarta.mail.internet.InternetAddress;
+
+/**
+ * {@link MailTransporter} which drops a message identical to one already sent within a window, so that a caller stuck in
+ * a loop cannot flood the relay. Messages are identical when they have the same recipients, subject, text and HTML
+ * after whitespace is normalized; the fingerprint is a 64 bit hash.
+ * <p>
+ * Fingerprints are held in two generations which are rotated every window, so memory is bounded by the traffic of the
+ * last two windows without any sweeping. At most one copy of a message is sent per window.
+ */
+public class DuplicateSuppressingMailTransporter implements MailTransporter {
+
+    static final Logger log = Logger.getLogger(DuplicateSuppressingMailTransporter.class.getName());
+
+    private final MailTransporter mailTransporter;
+    private final long windowMillis;
+    private final AtomicLong suppressed = new AtomicLong();
+
+    private volatile Map<Long, Long> current = new ConcurrentHashMap<>();
+    private volatile Map<Long, Long> previous = new ConcurrentHashMap<>();
+    private volatile long generationStart = System.currentTimeMillis();
+
+    public DuplicateSuppressingMailTransporter(MailTransporter mailTransporter, Duration window) {
+        this.mailTransporter = mailTransporter;
+        this.windowMillis = window.toMillis();
+    }
+
+    @Override
+    public EmailMessage send(EmailMessage emailMessage) {
+        // Streamed HTML has to be rendered to be compared
+        emailMessage.renderDeferredHtmlBody();
+        long fingerprint = fingerprint(emailMessage);
+        long now = System.currentTimeMillis();
+        if (isDuplicate(fingerprint, now)) {
+            suppressed.incrementAndGet();
+            log.fine(() -> "Suppressed duplicate \"%s\"".formatted(emailMessage.getSubject()));
+            return emailMessage;
+        }
+
+        boolean sent = false;
+        try {
+            EmailMessage result = mailTransporter.send(emailMessage);
+            sent = true;
+            return result;
+        }
+        finally {
+            if (!sent) {
+                release(fingerprint, now);
+            }
+        }
+    }
+
+    /**
+     * Number of messages dropped as duplicates
+     */
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+
+    private boolean isDuplicate(long fingerprint, long now) {
+        if (now - generationStart >= windowMillis) {
+            rotate(now);
+        }
+
+        Long earlier = previous.get(fingerprint);
+        boolean[] duplicate = { false };
+        current.compute(fingerprint, (key, seen) -> {
+            Long first = seen != null ? seen : earlier;
+            if (first != null && now - first < windowMillis) {
+                duplicate[0] = true;
+                return first;
+            }
+            return now;
+        });
+        return duplicate[0];
+    }
+
+    /**
+     * Forget a fingerprint whose send failed so that a retry is not suppressed. Only the entry recorded by that send is
+     * removed, it may have been rotated into the previous generation meanwhile.
+     */
+    private void release(long fingerprint, long recorded) {
+        Long value = recorded;
+        current.remove(fingerprint, value);
+        previous.remove(fingerprint, value);
+    }
+
+    private synchronized void rotate(long now) {
+        if (now - generationStart >= windowMillis) {
+            previous = current;
+            current = new ConcurrentHashMap<>();
+            generationStart = now;
+        }
+    }
+
+    static long fingerprint(EmailMessage emailMessage) {
+        long hash = 0;
+        hash = addresses(hash, emailMessage.getToAddresses());
+        hash = addresses(hash, emailMessage.getCcAddresses());
+        hash = addresses(hash, emailMessage.getBccAddresses());
+        hash = Hashing.hash64(hash, normalize(emailMessage.getSubject()));
+        hash = Hashing.hash64(hash, normalize(emailMessage.getTextBody()));
+        return Hashing.hash64(hash, normalize(emailMessage.getHtmlBody()));
+    }
+
+    private static long addresses(long hash, Set<InternetAddress> addresses) {
+        // Order independent so the same recipients in a different order still match
+        long combined = 0;
+        for (InternetAddress address : addresses) {
+            combined += Hashing.hash64(address.getAddress().toLowerCase(Locale.ROOT));
+        }
+        return Hashing.mix(hash * 31 + combined);
+    }
+
+    private static CharSequence normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+
+        StringBuilder sb = new StringBuilder(value.length());
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            }
+            else {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(c);
+            }
+        }
+        return sb;
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.MailTransporter;
+import co.cfly.email.api.SendFailedException;
+import co.cfly.email.impl.util.MailUtility;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+
+/**
+ * {@link MailTransporter} which builds the MIME message exactly as a real send would, but writes it to disk instead of handing
+ * it to a relay. Useful for staging environments and as a sink for load tests.
+ * <p>
+ * In {@link Mode#EML} every message is written to its own {@code .eml} file. In the archive modes messages are appended to a
+ * rolling mboxrd file, optionally gzip compressed. Archive writes are performed by a single writer thread which drains all
+ * pending messages into one gathering write and (optionally) one {@code force}, so the cost of a commit is shared by every
+ * sender waiting on it.
+ */
+public class FileMailTransporter implements MailTransporter, Closeable {
+
+    static final Logger log = Logger.getLogger(FileMailTransporter.class.getName());
+
+    private static final DateTimeFormatter MBOX_DATE = DateTimeFormatter.ofPattern("EEE MMM ppd HH:mm:ss yyyy", Locale.US);
+    private static final Pending SHUTDOWN = new Pending(null, null);
+
+    public enum Mode {
+        /**
+         * One .eml file per message
+         */
+        EML,
+        /**
+         * Rolling mboxrd archive
+         */
+        ARCHIVE,
+        /**
+         * Rolling gzip compressed mboxrd archive
+         */
+        COMPRESSED_ARCHIVE
+    }
+
+    private final Session session;
+    private final Path directory;
+    private final Mode mode;
+
+    private long rollSize = 256L * 1024 * 1024;
+    private int maxBatch = 1024;
+    private boolean sync;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>(16 * 1024);
+    private final String archivePrefix = "mail-" + System.currentTimeMillis();
+    private Thread writer;
+    private volatile boolean closed;
+
+    private int archiveSequence;
+    private FileChannel channel;
+    private OutputStream compressed;
+
+    public FileMailTransporter(Session session, Path directory) {
+        this(session, directory, Mode.EML);
+    }
+
+    public FileMailTransporter(Session session, Path directory, Mode mode) {
+        this.session = session;
+        this.directory = directory;
+        this.mode = mode;
+
+        try {
+            Files.createDirectories(directory);
+        }
+        catch (IOException e) {
+            throw new SendFailedException("Unable to create mail sink directory " + directory, e);
+        }
+    }
+
+    /**
+     * Size in bytes after which a new archive file is started. Defaults to 256MB
+     */
+    public void setRollSize(long rollSize) {
+        this.rollSize = rollSize;
+    }
+
+    /**
+     * Maximum number of messages written by a single group commit. Defaults to 1024
+     */
+    public void setMaxBatch(int maxBatch) {
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Force archive writes to the storage device before acknowledging a send. Defaults to false
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    @Override
+    public EmailMessage send(EmailMessage emailMessage) {
+        if (closed) {
+            throw new SendFailedException("FileMailTransporter has been closed");
+        }
+
+        RootMimeMessage msg = MailUtility.createMimeMessage(emailMessage, session);
+
+        try {
+            msg.saveChanges();
+            String messageId = MailUtility.headerStripper(msg.getMessageID());
+
+            if (mode == Mode.EML) {
+                writeEml(msg, messageId);
+            }
+            else {
+                appendToArchive(msg);
+            }
+
+            emailMessage.setMessageId(messageId);
+        }
+        catch (MessagingException | IOException e) {
+            throw new SendFailedException("Unable to write message to " + directory, e);
+        }
+
+        return emailMessage;
+    }
+
+    private void writeEml(RootMimeMessage msg, String messageId) throws IOException, MessagingException {
+        MessageBuffer buffer = new MessageBuffer();
+        msg.writeTo(buffer);
+
+        Path file = directory.resolve(messageId.replaceAll("[^A-Za-z0-9._@-]", "_") + ".eml");
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer data = buffer.asByteBuffer();
+            while (data.hasRemaining()) {
+                fileChannel.write(data);
+            }
+        }
+    }
+
+    private void appendToArchive(RootMimeMessage msg) throws IOException, MessagingException {
+        MessageBuffer buffer = new MessageBuffer();
+        buffer.write(("From MAILER-DAEMON " + MBOX_DATE.format(ZonedDateTime.now(ZoneOffset.UTC)) + "\n").getBytes(StandardCharsets.US_ASCII));
+
+        MboxrdOutputStream escaped = new MboxrdOutputStream(buffer);
+        msg.writeTo(escaped);
+        escaped.finish();
+        buffer.write('\n');
+
+        Pending pending = new Pending(buffer.asByteBuffer(), new CompletableFuture<>());
+        try {
+            enqueue(pending);
+            pending.committed().get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SendFailedException("Interrupted while waiting for archive write", e);
+        }
+        catch (ExecutionException e) {
+            throw new SendFailedException("Unable to append message to archive", e.getCause());
+        }
+    }
+
+    /**
+     * Checked under the same lock as {@link #close()}, so nothing can be queued behind the shutdown marker
+     */
+    private synchronized void enqueue(Pending pending) throws InterruptedException {
+        if (closed) {
+            throw new SendFailedException("FileMailTransporter has been closed");
+        }
+        if (writer == null) {
+            writer = Thread.ofPlatform().name("simple-email-file-sink").daemon().start(this::writeLoop);
+        }
+        queue.put(pending);
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        boolean running = true;
+
+        while (running) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatch - 1);
+            }
+            catch (InterruptedException e) {
+                break;
+            }
+
+            int shutdown = batch.indexOf(SHUTDOWN);
+            if (shutdown >= 0) {
+                List<Pending> stranded = batch.subList(shutdown, batch.size());
+                failClosed(stranded);
+                stranded.clear();
+                running = false;
+            }
+
+            try {
+                commit(batch);
+                batch.forEach(p -> p.committed().complete(null));
+            }
+            catch (IOException | RuntimeException e) {
+                log.log(Level.WARNING, "Unable to append " + batch.size() + " messages to archive", e);
+                batch.forEach(p -> p.committed().completeExceptionally(e));
+            }
+            batch.clear();
+        }
+
+        queue.drainTo(batch);
+        failClosed(batch);
+
+        try {
+            closeArchive();
+        }
+        catch (IOException e) {
+            log.log(Level.WARNING, "Unable to close archive", e);
+        }
+    }
+
+    private static void failClosed(List<Pending> pending) {
+        for (Pending p : pending) {
+            if (p.committed() != null) {
+                p.committed().completeExceptionally(new SendFailedException("FileMailTransporter has been closed"));
+            }
+        }
+    }
+
+    private void commit(List<Pending> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        if (channel == null || channel.size() >= rollSize) {
+            rollArchive();
+        }
+
+        if (compressed != null) {
+            for (Pending p : batch) {
+                ByteBuffer data = p.data();
+                compressed.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            }
+            compressed.flush();
+        }
+        else {
+            ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+            long remaining = 0;
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = batch.get(i).data();
+                remaining += buffers[i].remaining();
+            }
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+        }
+
+        if (sync) {
+            channel.force(false);
+        }
+    }
+
+    private void rollArchive() throws IOException {
+        closeArchive();
+
+        String suffix = mode == Mode.COMPRESSED_ARCHIVE ? ".mbox.gz" : ".mbox";
+        Path file = directory.resolve(archivePrefix + "-" + String.format("%05d", archiveSequence++) + suffix);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+        if (mode == Mode.COMPRESSED_ARCHIVE) {
+            compressed = new GZIPOutputStream(Channels.newOutputStream(channel), 64 * 1024, true);
+        }
+    }
+
+    private void closeArchive() throws IOException {
+        if (compressed != null) {
+            compressed.close();
+            compressed = null;
+            channel = null;
+        }
+        else if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Waits for pending archive writes to be committed and closes the current archive. Closing again only waits.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread current;
+        try {
+            synchronized (this) {
+                current = writer;
+                if (!closed) {
+                    if (current != null) {
+                        queue.put(SHUTDOWN);
+                    }
+                    closed = true;
+                }
+            }
+
+            if (current != null) {
+                current.join();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing archive", e);
+        }
+    }
+
+    private record Pending(ByteBuffer data, CompletableFuture<Void> committed) {
+    }
+
+    /**
+     * Exposes the written bytes without the copy made by {@link #toByteArray()}
+     */
+    private static class MessageBuffer extends ByteArrayOutputStream {
+
+        MessageBuffer() {
+            super(8 * 1024);
+        }
+
+        ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    /**
+     * Applies mboxrd quoting: any line matching {@code >*From } gets an additional leading {@code >}
+     */
+    private static class MboxrdOutputStream extends FilterOutputStream {
+
+        private static final byte[] FROM = "From ".getBytes(StandardCharsets.US_ASCII);
+
+        private boolean lineStart = true;
+        private int quotes;
+        private int matched;
+
+        MboxrdOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (lineStart) {
+                if (matched == 0 && b == '>') {
+                    quotes++;
+                    return;
+                }
+                if (b == FROM[matched]) {
+                    matched++;
+                    if (matched == FROM.length) {
+                        out.write('>');
+                        flushPending();
+                        lineStart = false;
+                    }
+                    return;
+                }
+                flushPending();
+                lineStart = false;
+            }
+
+            out.write(b);
+
+            if (b == '\n') {
+                lineStart = true;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int end = off + len;
+            int i = off;
+            while (i < end) {
+                if (lineStart) {
+                    write(b[i++]);
+                    continue;
+                }
+                int lineEnd = i;
+                while (lineEnd < end && b[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                if (lineEnd < end) {
+                    out.write(b, i, lineEnd - i + 1);
+                    lineStart = true;
+                    i = lineEnd + 1;
+                }
+                else {
+                    out.write(b, i, end - i);
+                    i = end;
+                }
+            }
+        }
+
+        void finish() throws IOException {
+            if (lineStart) {
+                flushPending();
+            }
+        }
+
+        private void flushPending() throws IOException {
+            for (int i = 0; i < quotes; i++) {
+                out.write('>');
+            }
+            out.write(FROM, 0, matched);
+            quotes = 0;
+            matched = 0;
+        }
+    }
+}
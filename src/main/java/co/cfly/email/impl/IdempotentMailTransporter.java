@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import co.cfly.email.api.AttachmentException;
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.IdempotencyStore;
+import co.cfly.email.api.InvalidAddressException;
+import co.cfly.email.api.MailTransporter;
+import co.cfly.email.api.TemplatingException;
+import co.cfly.email.impl.util.MailUtility;
+import jakarta.mail.Address;
+import jakarta.mail.AuthenticationFailedException;
+
+/**
+ * {@link MailTransporter} which suppresses sending a message whose key has already been sent, so that a retry after an
+ * ambiguous failure does not deliver it twice. Messages without a key are always sent.
+ * <p>
+ * A failed send only frees its key for a retry when the failure shows nothing was transferred: the message could not
+ * be built, the relay could not be reached or refused the login, or rejected every recipient before the message data.
+ * Any other failure, a timeout or an error after the data was sent, may have been accepted by the relay, so the key is
+ * kept as sent for its time to live and a retry is suppressed.
+ */
+public class IdempotentMailTransporter implements MailTransporter {
+
+    static final Logger log = Logger.getLogger(IdempotentMailTransporter.class.getName());
+
+    private final MailTransporter mailTransporter;
+    private final IdempotencyStore idempotencyStore;
+    private final Function<EmailMessage, String> keyFunction;
+    private Predicate<Throwable> definiteFailure = IdempotentMailTransporter::isDefiniteFailure;
+
+    /**
+     * Keys messages by their Message-ID. A message without one is given a Message-ID before it is reserved, so a retry
+     * of the same {@link EmailMessage} is suppressed; a message rebuilt for the retry needs a caller supplied key.
+     */
+    public IdempotentMailTransporter(MailTransporter mailTransporter, IdempotencyStore idempotencyStore) {
+        this(mailTransporter, idempotencyStore, IdempotentMailTransporter::messageId);
+    }
+
+    /**
+     * @param keyFunction derives the idempotency key from a message, returning null if the message has none
+     */
+    public IdempotentMailTransporter(MailTransporter mailTransporter, IdempotencyStore idempotencyStore, Function<EmailMessage, String> keyFunction) {
+        this.mailTransporter = mailTransporter;
+        this.idempotencyStore = idempotencyStore;
+        this.keyFunction = keyFunction;
+    }
+
+    /**
+     * Decides which send failures certainly delivered nothing, so that their key is released for a retry. Defaults to
+     * {@link #isDefiniteFailure(Throwable)}
+     */
+    public void setDefiniteFailure(Predicate<Throwable> definiteFailure) {
+        this.definiteFailure = definiteFailure;
+    }
+
+    @Override
+    public EmailMessage send(EmailMessage emailMessage) {
+        String key = keyFunction.apply(emailMessage);
+
+        if (key == null) {
+            return mailTransporter.send(emailMessage);
+        }
+
+        if (!idempotencyStore.reserve(key)) {
+            log.info("Suppressed duplicate send of %s".formatted(key));
+            return emailMessage;
+        }
+
+        EmailMessage result;
+        try {
+            result = mailTransporter.send(emailMessage);
+        }
+        catch (RuntimeException | Error e) {
+            if (definiteFailure.test(e)) {
+                idempotencyStore.release(key);
+            }
+            else {
+                log.log(Level.WARNING, "Send of %s failed after it may have been accepted, retries will be suppressed".formatted(key), e);
+                idempotencyStore.complete(key);
+            }
+            throw e;
+        }
+        idempotencyStore.complete(key);
+        return result;
+    }
+
+    /**
+     * True if the failure happened before any message data reached the relay: building the message failed, the relay
+     * could not be reached or refused the login, or it rejected the recipients
+     */
+    public static boolean isDefiniteFailure(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof TemplatingException || t instanceof InvalidAddressException || t instanceof AttachmentException) {
+                return true;
+            }
+            if (t instanceof AuthenticationFailedException || t instanceof ConnectException || t instanceof UnknownHostException) {
+                return true;
+            }
+            // Every recipient was refused, so the data was never sent. A failure after the data reports the recipients
+            // as valid but unsent instead
+            if (t instanceof jakarta.mail.SendFailedException rejected && isEmpty(rejected.getValidSentAddresses()) && isEmpty(rejected.getValidUnsentAddresses())
+                    && !isEmpty(rejected.getInvalidAddresses())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isEmpty(Address[] addresses) {
+        return addresses == null || addresses.length == 0;
+    }
+
+    private static String messageId(EmailMessage emailMessage) {
+        if (emailMessage.getMessageId() == null) {
+            emailMessage.setMessageId(UUID.randomUUID() + "@" + MailUtility.getHostName());
+        }
+        return emailMessage.getMessageId();
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import co.cfly.email.api.IdempotencyStore;
+
+/**
+ * {@link IdempotencyStore} held in memory, optionally journaled to a file so that sent keys survive a restart.
+ * <p>
+ * Keys are remembered for a fixed time to live. Expired keys are swept, and the journal compacted, by a background thread
+ * once every time to live so that neither happens on the send path. The compacted journal is written without holding the
+ * lock {@link #complete(String)} takes; keys completed meanwhile are appended to it before it replaces the journal.
+ * <p>
+ * Stores are created with {@link #create(Duration, long)} or {@link #create(Duration, long, Path)}, which start the sweeper.
+ */
+public class LocalIdempotencyStore implements IdempotencyStore, Closeable {
+
+    static final Logger log = Logger.getLogger(LocalIdempotencyStore.class.getName());
+
+    private static final long IN_FLIGHT = Long.MAX_VALUE;
+
+    private final long ttlMillis;
+    private final Map<String, Long> entries;
+    private final Path journalFile;
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("simple-email-idempotency").factory());
+    private volatile ScheduledFuture<?> sweeping;
+
+    private BufferedWriter journal;
+    private List<String> compactingTail;
+    private boolean closed;
+
+    /**
+     * Memory only store
+     *
+     * @param ttl             how long a sent key is remembered
+     * @param expectedEntries number of keys expected to be sent within one time to live, used to size the store
+     */
+    public static LocalIdempotencyStore create(Duration ttl, long expectedEntries) {
+        return create(ttl, expectedEntries, null);
+    }
+
+    /**
+     * Store journaled to the given file, which is loaded if it already exists
+     */
+    public static LocalIdempotencyStore create(Duration ttl, long expectedEntries, Path journalFile) {
+        LocalIdempotencyStore store = new LocalIdempotencyStore(ttl, expectedEntries, journalFile);
+        store.sweeping = store.sweeper.scheduleWithFixedDelay(store::sweep, store.ttlMillis, store.ttlMillis, TimeUnit.MILLISECONDS);
+        return store;
+    }
+
+    private LocalIdempotencyStore(Duration ttl, long expectedEntries, Path journalFile) {
+        this.ttlMillis = ttl.toMillis();
+        this.entries = new ConcurrentHashMap<>((int) Math.min(expectedEntries, 1 << 20));
+        this.journalFile = journalFile;
+
+        if (journalFile != null) {
+            try {
+                load();
+                openJournal();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("Unable to open idempotency journal " + journalFile, e);
+            }
+        }
+    }
+
+    @Override
+    public boolean reserve(String key) {
+        long now = System.currentTimeMillis();
+        boolean[] reserved = { false };
+        entries.compute(key, (k, expiry) -> {
+            if (expiry != null && expiry > now) {
+                return expiry;
+            }
+            reserved[0] = true;
+            return IN_FLIGHT;
+        });
+        return reserved[0];
+    }
+
+    /**
+     * Record the key as sent. The message has already gone, so a journal which cannot be written is logged rather than
+     * failing the send; the key is still remembered in memory.
+     */
+    @Override
+    public void complete(String key) {
+        long expiry = System.currentTimeMillis() + ttlMillis;
+        entries.put(key, expiry);
+
+        if (journalFile != null) {
+            synchronized (this) {
+                if (closed) {
+                    log.warning(() -> "Idempotency journal %s is closed, key %s not journaled".formatted(journalFile, key));
+                    return;
+                }
+                String line = expiry + " " + key + "\n";
+                if (compactingTail != null) {
+                    compactingTail.add(line);
+                }
+                try {
+                    journal.write(line);
+                    journal.flush();
+                }
+                catch (IOException e) {
+                    log.log(Level.WARNING, e, () -> "Unable to write idempotency journal %s, key %s not journaled".formatted(journalFile, key));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void release(String key) {
+        entries.remove(key, IN_FLIGHT);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drop expired keys and compact the journal. Runs on the background thread every time to live.
+     */
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(expiry -> expiry <= now);
+
+        if (journalFile != null) {
+            try {
+                compact();
+            }
+            catch (IOException e) {
+                log.log(Level.WARNING, e, () -> "Unable to compact idempotency journal " + journalFile);
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space < 1) {
+                    continue;
+                }
+                long expiry = Long.parseLong(line.substring(0, space));
+                if (expiry > now) {
+                    entries.put(line.substring(space + 1), expiry);
+                }
+            }
+        }
+    }
+
+    private void openJournal() throws IOException {
+        journal = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void compact() throws IOException {
+        synchronized (this) {
+            if (closed || compactingTail != null) {
+                return;
+            }
+            compactingTail = new ArrayList<>();
+        }
+
+        Path compacted = journalFile.resolveSibling(journalFile.getFileName() + ".compact");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                    if (entry.getValue() != IN_FLIGHT) {
+                        writer.write(entry.getValue() + " " + entry.getKey() + "\n");
+                    }
+                }
+            }
+
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                // Keys completed while the snapshot was written, repeating one already in it is harmless
+                try (BufferedWriter writer = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8, StandardOpenOption.APPEND)) {
+                    for (String line : compactingTail) {
+                        writer.write(line);
+                    }
+                }
+                journal.close();
+                try {
+                    Files.move(compacted, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                finally {
+                    // Keep journaling to whichever file is in place, even if compacting failed
+                    openJournal();
+                }
+            }
+        }
+        finally {
+            synchronized (this) {
+                compactingTail = null;
+            }
+            Files.deleteIfExists(compacted);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        ScheduledFuture<?> scheduled = sweeping;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        sweeper.shutdown();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+}
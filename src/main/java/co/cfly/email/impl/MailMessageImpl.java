@@ -11,10 +11,16 @@ package co.cfly.email.impl;
 
 import java.io.File;
 import java.io.InputStream;
+import java.time.Instant;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
+import co.cfly.email.api.AddressResult;
 import co.cfly.email.api.ContentDisposition;
 import co.cfly.email.api.ContentType;
 import co.cfly.email.api.EmailAttachment;
@@ -22,19 +28,25 @@ import co.cfly.email.api.EmailContact;
 import co.cfly.email.api.EmailMessage;
 import co.cfly.email.api.EmailMessageType;
 import co.cfly.email.api.Header;
+import co.cfly.email.api.HtmlPostProcessor;
 import co.cfly.email.api.ICalMethod;
+import co.cfly.email.api.InvalidAddressHandler;
+import co.cfly.email.api.LayeredTemplateContext;
 import co.cfly.email.api.MailContext;
 import co.cfly.email.api.MailMessage;
+import co.cfly.email.api.MailScheduler;
 import co.cfly.email.api.MailTransporter;
 import co.cfly.email.api.MessagePriority;
+import co.cfly.email.api.RecipientType;
 import co.cfly.email.api.SendFailedException;
 import co.cfly.email.api.SessionConfig;
+import co.cfly.email.api.StreamingTemplateProvider;
 import co.cfly.email.api.TemplateProvider;
 import co.cfly.email.impl.attachments.BaseAttachment;
 import co.cfly.email.impl.attachments.FileAttachment;
 import co.cfly.email.impl.attachments.InputStreamAttachment;
+import co.cfly.email.impl.util.AddressParser;
 import co.cfly.email.impl.util.EmailAttachmentUtil;
-import co.cfly.email.impl.util.HtmlToPlainText;
 import co.cfly.email.impl.util.MailUtility;
 import jakarta.mail.Session;
 import jakarta.mail.internet.InternetAddress;
@@ -42,6 +54,8 @@ import jakarta.mail.internet.InternetAddress;
 @SuppressWarnings("CanIgnoreReturnValueSuggester")
 public class MailMessageImpl implements MailMessage {
 
+    private static final Executor VIRTUAL_THREADS = task -> Thread.ofVirtual().name("simple-email-merge").start(task);
+
     private EmailMessage emailMessage;
 
     private MailTransporter mailTransporter;
@@ -54,6 +68,9 @@ public class MailMessageImpl implements MailMessage {
     private Map<String, Object> templateContext = new HashMap<>();
     private boolean templatesMerged;
     private boolean createTextAlternative = false;
+    private boolean streamHtml = false;
+    private HtmlPostProcessor htmlPostProcessor;
+    private Executor mergeExecutor;
 
     private MailMessageImpl() {
         emailMessage = new EmailMessage();
@@ -219,6 +236,51 @@ public class MailMessageImpl implements MailMessage {
         return this;
     }
 
+    @Override
+    public MailMessage addRecipientAddresses(RecipientType recipientType, Iterable<String> addresses, InvalidAddressHandler invalidHandler) {
+        Set<InternetAddress> recipients = recipients(recipientType);
+        AddressParser parser = new AddressParser();
+
+        for (String address : addresses) {
+            AddressResult result = MailUtility.validateAddress(parser, address);
+            if (result.isValid()) {
+                recipients.add(result.getAddress());
+            }
+            else if (invalidHandler != null) {
+                invalidHandler.invalidAddress(address, result.getError());
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public MailMessage addRecipients(RecipientType recipientType, Iterable<? extends EmailContact> emailContacts, InvalidAddressHandler invalidHandler) {
+        Set<InternetAddress> recipients = recipients(recipientType);
+        AddressParser parser = new AddressParser();
+
+        for (EmailContact emailContact : emailContacts) {
+            if (emailContact == null) {
+                continue;
+            }
+            AddressResult result = MailUtility.validateAddress(parser, emailContact.getAddress(), emailContact.getName());
+            if (result.isValid()) {
+                recipients.add(result.getAddress());
+            }
+            else if (invalidHandler != null) {
+                invalidHandler.invalidAddress(emailContact.getAddress(), result.getError());
+            }
+        }
+        return this;
+    }
+
+    private Set<InternetAddress> recipients(RecipientType recipientType) {
+        return switch (recipientType) {
+            case TO -> emailMessage.getToAddresses();
+            case CC -> emailMessage.getCcAddresses();
+            case BCC -> emailMessage.getBccAddresses();
+        };
+    }
+
     @Override
     public MailMessage envelopeFrom(EmailContact emailContact) {
         if (emailContact != null) {
@@ -285,6 +347,30 @@ public class MailMessageImpl implements MailMessage {
         return this;
     }
 
+    @Override
+    public MailMessage streamHtml(boolean value) {
+        streamHtml = value;
+        return this;
+    }
+
+    @Override
+    public MailMessage parallelMerge(boolean value) {
+        mergeExecutor = value ? VIRTUAL_THREADS : null;
+        return this;
+    }
+
+    @Override
+    public MailMessage parallelMerge(Executor executor) {
+        mergeExecutor = executor;
+        return this;
+    }
+
+    @Override
+    public MailMessage postProcessHtml(HtmlPostProcessor processor) {
+        htmlPostProcessor = processor;
+        return this;
+    }
+
     @Override
     public MailMessage bodyHtmlTextAlt(String html, String text) {
         emailMessage.setTextBody(text);
@@ -396,6 +482,14 @@ public class MailMessageImpl implements MailMessage {
         return this;
     }
 
+    @Override
+    public MailMessage sharedContext(Map<String, Object> sharedContext) {
+        LayeredTemplateContext layered = new LayeredTemplateContext(sharedContext);
+        layered.putAll(templateContext instanceof LayeredTemplateContext current ? current.getOverlay() : templateContext);
+        templateContext = layered;
+        return this;
+    }
+
     /**
      * Enable click tracking
      */
@@ -434,6 +528,12 @@ public class MailMessageImpl implements MailMessage {
 
         put("mailContext", new MailContext(EmailAttachmentUtil.getEmailAttachmentMap(emailMessage.getAttachments())));
 
+        if (mergeExecutor != null) {
+            mergeTemplatesConcurrently();
+            templatesMerged = true;
+            return emailMessage;
+        }
+
         if (subjectTemplate != null) {
             emailMessage.setSubject(subjectTemplate.merge(templateContext));
         }
@@ -443,11 +543,22 @@ public class MailMessageImpl implements MailMessage {
         }
 
         if (htmlTemplate != null) {
-            emailMessage.setHtmlBody(htmlTemplate.merge(templateContext));
+            if (streamHtml && !createTextAlternative && htmlPostProcessor == null && htmlTemplate instanceof StreamingTemplateProvider streamingTemplate) {
+                // Snapshot, so values put after merging don't change the HTML which is sent
+                Map<String, Object> context = snapshotContext();
+                emailMessage.setDeferredHtmlBody(writer -> streamingTemplate.mergeTo(context, writer));
+            }
+            else {
+                emailMessage.setHtmlBody(htmlTemplate.merge(templateContext));
+            }
+        }
+
+        if (emailMessage.getHtmlBody() != null && htmlPostProcessor != null) {
+            emailMessage.setHtmlBody(htmlPostProcessor.process(emailMessage.getHtmlBody()));
         }
 
         if (emailMessage.getHtmlBody() != null && createTextAlternative) {
-            emailMessage.setTextBody(HtmlToPlainText.convert(emailMessage.getHtmlBody()));
+            emailMessage.setTextBody(MailUtility.textAlternative(emailMessage.getHtmlBody()));
         }
 
         templatesMerged = true;
@@ -455,6 +566,70 @@ public class MailMessageImpl implements MailMessage {
         return emailMessage;
     }
 
+    private void mergeTemplatesConcurrently() {
+        boolean deferHtml = streamHtml && !createTextAlternative && htmlPostProcessor == null && htmlTemplate instanceof StreamingTemplateProvider;
+
+        CompletableFuture<String> subject = mergeAsync(subjectTemplate);
+        CompletableFuture<String> text = mergeAsync(textTemplate);
+        CompletableFuture<String> html = htmlTemplate != null && !deferHtml ? mergeAsync(htmlTemplate) : CompletableFuture.completedFuture(emailMessage.getHtmlBody());
+        if (htmlPostProcessor != null) {
+            HtmlPostProcessor processor = htmlPostProcessor;
+            html = html.thenApplyAsync(h -> h != null ? processor.process(h) : null, mergeExecutor);
+        }
+        // Starts as soon as the HTML is ready, overlapping with whichever of the subject and text is still rendering
+        CompletableFuture<String> textAlternative = createTextAlternative ? html.thenApplyAsync(h -> h != null ? MailUtility.textAlternative(h) : null, mergeExecutor) :
+                CompletableFuture.completedFuture(null);
+
+        try {
+            if (subjectTemplate != null) {
+                emailMessage.setSubject(subject.join());
+            }
+
+            if (textTemplate != null) {
+                emailMessage.setTextBody(text.join());
+            }
+
+            if (htmlTemplate != null || htmlPostProcessor != null) {
+                if (deferHtml) {
+                    StreamingTemplateProvider streamingTemplate = (StreamingTemplateProvider) htmlTemplate;
+                    Map<String, Object> context = snapshotContext();
+                    emailMessage.setDeferredHtmlBody(writer -> streamingTemplate.mergeTo(context, writer));
+                }
+                else {
+                    emailMessage.setHtmlBody(html.join());
+                }
+            }
+
+            if (textAlternative.join() != null) {
+                emailMessage.setTextBody(textAlternative.join());
+            }
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Copy of the context for a deferred body. Only the overlay of a layered context is copied, the shared base is not.
+     */
+    private Map<String, Object> snapshotContext() {
+        return templateContext instanceof LayeredTemplateContext layered ? new LayeredTemplateContext(layered.getBase(), new HashMap<>(layered.getOverlay())) :
+                new HashMap<>(templateContext);
+    }
+
+    private CompletableFuture<String> mergeAsync(TemplateProvider template) {
+        if (template == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Each template gets its own overlay so variables set while rendering one are not shared with the others
+        Map<String, Object> context = new LayeredTemplateContext(templateContext);
+        return CompletableFuture.supplyAsync(() -> template.merge(context), mergeExecutor);
+    }
+
     public EmailMessage send(MailTransporter mailTransporter) throws SendFailedException {
         if (!templatesMerged) {
             mergeTemplates();
@@ -470,6 +645,17 @@ public class MailMessageImpl implements MailMessage {
         return emailMessage;
     }
 
+    @Override
+    public String sendAt(MailScheduler mailScheduler, Instant sendAt) {
+        if (!templatesMerged) {
+            mergeTemplates();
+        }
+
+        // A scheduled message outlives the template, so it can't be rendered as it is written
+        emailMessage.renderDeferredHtmlBody();
+        return mailScheduler.schedule(emailMessage, sendAt);
+    }
+
     private EmailMessage send(Session session) throws SendFailedException {
         return send(new MailTransporterImpl(session));
     }
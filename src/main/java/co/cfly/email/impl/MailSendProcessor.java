@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.MailTransporter;
+import co.cfly.email.api.SendResult;
+
+/**
+ * {@link Flow.Processor} which sends each {@link EmailMessage} it receives through a {@link MailTransporter} and publishes a
+ * {@link SendResult} per message.
+ * <p>
+ * At most {@code maxInFlight} messages are requested from upstream at a time. A further message is only requested once a send
+ * has finished and its result has been accepted downstream, so a slow relay or a slow result consumer throttles the producer
+ * instead of queueing messages in memory.
+ * <p>
+ * Results are delivered downstream on a different executor from the sends. A send blocks while downstream buffers are
+ * full, so if both shared a bounded pool the blocked sends could hold every thread and starve the delivery which would
+ * release them.
+ */
+public class MailSendProcessor extends SubmissionPublisher<SendResult> implements Flow.Processor<EmailMessage, SendResult> {
+
+    private final MailTransporter mailTransporter;
+    private final Executor sendExecutor;
+    private final int maxInFlight;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean upstreamDone;
+    private volatile Throwable upstreamError;
+    private Flow.Subscription subscription;
+
+    /**
+     * Sends on virtual threads, one per in-flight message
+     */
+    public MailSendProcessor(MailTransporter mailTransporter, int maxInFlight) {
+        this(mailTransporter, maxInFlight, task -> Thread.ofVirtual().name("simple-email-send").start(task));
+    }
+
+    /**
+     * Sends on the given executor and delivers results on virtual threads
+     */
+    public MailSendProcessor(MailTransporter mailTransporter, int maxInFlight, Executor sendExecutor) {
+        this(mailTransporter, maxInFlight, sendExecutor, task -> Thread.ofVirtual().name("simple-email-result").start(task));
+    }
+
+    /**
+     * @param sendExecutor     runs the blocking sends
+     * @param deliveryExecutor delivers results to subscribers, must not be the send executor
+     */
+    public MailSendProcessor(MailTransporter mailTransporter, int maxInFlight, Executor sendExecutor, Executor deliveryExecutor) {
+        super(deliveryExecutor, Flow.defaultBufferSize());
+        if (sendExecutor == deliveryExecutor) {
+            throw new IllegalArgumentException("sendExecutor and deliveryExecutor must be different executors");
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1 but was: " + maxInFlight);
+        }
+        this.mailTransporter = mailTransporter;
+        this.maxInFlight = maxInFlight;
+        this.sendExecutor = sendExecutor;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(maxInFlight);
+    }
+
+    @Override
+    public void onNext(EmailMessage emailMessage) {
+        inFlight.incrementAndGet();
+        sendExecutor.execute(() -> send(emailMessage));
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        upstreamError = throwable;
+        upstreamDone = true;
+        closeWhenDrained();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        closeWhenDrained();
+    }
+
+    private void send(EmailMessage emailMessage) {
+        SendResult result;
+        try {
+            mailTransporter.send(emailMessage);
+            result = SendResult.sent(emailMessage);
+        }
+        catch (Exception e) {
+            result = SendResult.failed(emailMessage, e);
+        }
+
+        // Blocks while downstream buffers are full, which holds back the next request upstream
+        submit(result);
+
+        if (inFlight.decrementAndGet() == 0 && upstreamDone) {
+            closeWhenDrained();
+        }
+        else if (!upstreamDone) {
+            subscription.request(1);
+        }
+    }
+
+    private void closeWhenDrained() {
+        if (inFlight.get() == 0 && closed.compareAndSet(false, true)) {
+            if (upstreamError != null) {
+                closeExceptionally(upstreamError);
+            }
+            else {
+                close();
+            }
+        }
+    }
+}
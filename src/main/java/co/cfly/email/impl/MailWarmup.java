@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl;
+
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import co.cfly.email.api.ContentDisposition;
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.LayeredTemplateContext;
+import co.cfly.email.api.MailContext;
+import co.cfly.email.api.WarmupReport;
+import co.cfly.email.impl.templating.SimpleTemplate;
+import co.cfly.email.impl.templating.TemplateRegistry;
+import co.cfly.email.impl.templating.velocity.VelocityTemplate;
+import co.cfly.email.impl.util.HtmlToPlainText;
+import co.cfly.email.impl.util.MailUtility;
+import jakarta.mail.Session;
+
+/**
+ * Runs the mail pipeline once before the first real message, so engine initialization, class loading and JIT of the
+ * common paths happen during startup or a readiness check rather than on a customer's send.
+ * <p>
+ * {@link #run()} initializes the shared Velocity engine, renders every template of the added {@link TemplateRegistry}s
+ * with the sample context, converts HTML to text and builds and serializes a complete MIME message without sending it.
+ * Failures are collected in the returned {@link WarmupReport} rather than thrown.
+ */
+public class MailWarmup {
+
+    static final Logger log = Logger.getLogger(MailWarmup.class.getName());
+
+    private static final String SAMPLE_HTML = "<html><body><h1>Warm-up</h1><p>Dear <b>$name</b>,</p><ul><li>One</li><li>Two</li></ul>"
+            + "<p><a href=\"https://example.com\">Link</a> <img src=\"$mailContext.insert(\"logo.png\")\"></p></body></html>";
+
+    private final List<TemplateRegistry> registries = new ArrayList<>();
+    private Map<String, Object> sampleContext = Map.of();
+    private Session session;
+
+    public void addRegistry(TemplateRegistry registry) {
+        registries.add(registry);
+    }
+
+    /**
+     * Set the values templates are rendered with. A {@code mailContext} resolving any attachment name is added unless
+     * one is supplied.
+     */
+    public void setSampleContext(Map<String, Object> sampleContext) {
+        this.sampleContext = sampleContext;
+    }
+
+    /**
+     * Set the session MIME messages are built with, by default an unconfigured session
+     */
+    public void setSession(Session session) {
+        this.session = session;
+    }
+
+    public WarmupReport run() {
+        Map<String, Duration> stages = new LinkedHashMap<>();
+        Map<String, Throwable> failures = new LinkedHashMap<>();
+
+        stage("velocity", stages, failures, () -> new VelocityTemplate("#foreach($i in [1..2])$i#end $!name").merge(new HashMap<>(Map.of("name", "warm-up"))));
+        stage("simple-template", stages, failures, () -> new SimpleTemplate("{{#items}}{{.}}{{/items}} {{name}}", true).merge(Map.of("items", List.of(1, 2), "name", "warm-up")));
+
+        long start = System.nanoTime();
+        Map<String, Object> base = new HashMap<>();
+        base.put("mailContext", new SampleMailContext());
+        base.putAll(sampleContext);
+        for (TemplateRegistry registry : registries) {
+            for (String name : registry.getNames()) {
+                try {
+                    registry.get(name).merge(new LayeredTemplateContext(base));
+                }
+                catch (RuntimeException | LinkageError e) {
+                    failures.put(name, e);
+                }
+            }
+        }
+        stages.put("templates", Duration.ofNanos(System.nanoTime() - start));
+
+        stage("html-to-text", stages, failures, () -> HtmlToPlainText.convert(SAMPLE_HTML));
+        stage("mime", stages, failures, this::buildMessage);
+
+        WarmupReport report = new WarmupReport(stages, failures);
+        if (report.isSuccess()) {
+            log.info(report.toString());
+        }
+        else {
+            log.log(Level.WARNING, report.toString());
+        }
+        return report;
+    }
+
+    private void buildMessage() throws Exception {
+        Session mailSession = session != null ? session : Session.getInstance(new Properties());
+        EmailMessage emailMessage = new MailMessageImpl(mailSession).from("Warm-up <warmup@localhost.localdomain>").to("warmup@localhost.localdomain")
+                .subject(new VelocityTemplate("Warm-up for $name")).bodyHtml(new VelocityTemplate(SAMPLE_HTML)).createTextAlternative(true)
+                .addAttachment("logo.png", "image/png", ContentDisposition.INLINE, new byte[] { 1 })
+                .addAttachment("data.bin", "application/octet-stream", ContentDisposition.ATTACHMENT, new byte[64])
+                .put("name", "warm-up").mergeTemplates();
+
+        MailUtility.createMimeMessage(emailMessage, mailSession).writeTo(OutputStream.nullOutputStream());
+    }
+
+    private static void stage(String name, Map<String, Duration> stages, Map<String, Throwable> failures, Stage stage) {
+        long start = System.nanoTime();
+        try {
+            stage.run();
+        }
+        catch (Exception | LinkageError e) {
+            // A missing or broken dependency fails as a LinkageError, which is what warming up is meant to surface
+            failures.put(name, e);
+        }
+        stages.put(name, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    private static class SampleMailContext extends MailContext {
+
+        SampleMailContext() {
+            super(Map.of());
+        }
+
+        @Override
+        public String insert(String fileName) {
+            return "cid:" + fileName;
+        }
+    }
+}
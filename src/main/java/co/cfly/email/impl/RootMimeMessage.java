@@ -12,7 +12,16 @@
 
 package co.cfly.email.impl;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import co.cfly.email.impl.dkim.DkimSigner;
 
 import jakarta.mail.Header;
 import jakarta.mail.MessagingException;
@@ -20,12 +29,18 @@ import jakarta.mail.Session;
 import jakarta.mail.internet.MimeMessage;
 
 /**
- * Extends {@link MimeMessage} to allow for the setting of the Message-ID
+ * Extends {@link MimeMessage} to allow for the setting of the Message-ID and DKIM signing on output
  */
 public class RootMimeMessage extends MimeMessage {
 
+    /**
+     * Bytes of a signed message held in memory while it is hashed, anything larger is spilled to a temporary file
+     */
+    static final int SIGNING_BUFFER_SIZE = 256 * 1024;
+
     private String messageId;
     private String envelopeFrom;
+    private DkimSigner dkimSigner;
 
     public RootMimeMessage(Session session) {
         super(session);
@@ -41,6 +56,48 @@ public class RootMimeMessage extends MimeMessage {
         setHeader(header.getName(), header.getValue());
     }
 
+    /**
+     * Signs the message when a {@link DkimSigner} is set. The signature covers the body hash, so nothing can be written
+     * until the whole message has been serialized. It is serialized once, into the signer's hasher and a buffer which
+     * spills to a temporary file past {@link #SIGNING_BUFFER_SIZE}, then copied out behind the prepended DKIM-Signature
+     * header.
+     */
+    @Override
+    public void writeTo(OutputStream os, String[] ignoreList) throws IOException, MessagingException {
+        if (dkimSigner == null) {
+            super.writeTo(os, ignoreList);
+            return;
+        }
+
+        if (!saved) {
+            saveChanges();
+        }
+        removeHeader(DkimSigner.HEADER_NAME);
+        DkimSigner.BodyHasher hasher = dkimSigner.newBodyHasher();
+        try (SpillOutputStream serialized = new SpillOutputStream(SIGNING_BUFFER_SIZE)) {
+            super.writeTo(new TeeOutputStream(hasher, serialized), ignoreList);
+
+            String signature = dkimSigner.sign(this, hasher.digest());
+            setHeader(DkimSigner.HEADER_NAME, signature);
+            if (!ignored(ignoreList)) {
+                os.write((DkimSigner.HEADER_NAME + ": " + signature + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            }
+            serialized.copyTo(os);
+        }
+        os.flush();
+    }
+
+    private static boolean ignored(String[] ignoreList) {
+        if (ignoreList != null) {
+            for (String name : ignoreList) {
+                if (DkimSigner.HEADER_NAME.equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     public String getMessageId() {
         return messageId;
     }
@@ -56,4 +113,93 @@ public class RootMimeMessage extends MimeMessage {
     public void setEnvelopeFrom(String envelopeFrom) {
         this.envelopeFrom = envelopeFrom;
     }
+
+    public DkimSigner getDkimSigner() {
+        return dkimSigner;
+    }
+
+    public void setDkimSigner(DkimSigner dkimSigner) {
+        this.dkimSigner = dkimSigner;
+    }
+
+    private static class TeeOutputStream extends OutputStream {
+
+        private final OutputStream first;
+        private final OutputStream second;
+
+        TeeOutputStream(OutputStream first, OutputStream second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            first.write(b);
+            second.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            first.write(b, off, len);
+            second.write(b, off, len);
+        }
+    }
+
+    /**
+     * Holds written bytes in memory up to a threshold, then moves them to a temporary file which is deleted on close
+     */
+    private static class SpillOutputStream extends OutputStream {
+
+        private final int threshold;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream(8 * 1024);
+        private Path file;
+        private OutputStream fileOut;
+
+        SpillOutputStream(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (fileOut == null && memory.size() + len > threshold) {
+                file = Files.createTempFile("simple-email-dkim", ".eml");
+                fileOut = new BufferedOutputStream(Files.newOutputStream(file));
+                memory.writeTo(fileOut);
+                memory = null;
+            }
+            if (fileOut != null) {
+                fileOut.write(b, off, len);
+            }
+            else {
+                memory.write(b, off, len);
+            }
+        }
+
+        void copyTo(OutputStream os) throws IOException {
+            if (fileOut != null) {
+                fileOut.flush();
+                Files.copy(file, os);
+            }
+            else {
+                memory.writeTo(os);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileOut != null) {
+                try {
+                    fileOut.close();
+                }
+                finally {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
 }
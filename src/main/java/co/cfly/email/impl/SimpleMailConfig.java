@@ -30,6 +30,13 @@ public class SimpleMailConfig implements Serializable, SessionConfig {
     private Boolean requireTls = false;
     private Boolean enableSsl = false;
     private Boolean auth = false;
+    private Integer connectTimeout;
+    private Integer readTimeout;
+    private Integer writeTimeout;
+    private Integer sendTimeout;
+    private String dkimDomain;
+    private String dkimSelector;
+    private String dkimPrivateKey;
 
     @Override
     public String getServerHost() {
@@ -112,6 +119,69 @@ public class SimpleMailConfig implements Serializable, SessionConfig {
         this.auth = auth;
     }
 
+    @Override
+    public Integer getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Integer connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    @Override
+    public Integer getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(Integer readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public Integer getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    public void setWriteTimeout(Integer writeTimeout) {
+        this.writeTimeout = writeTimeout;
+    }
+
+    @Override
+    public Integer getSendTimeout() {
+        return sendTimeout;
+    }
+
+    public void setSendTimeout(Integer sendTimeout) {
+        this.sendTimeout = sendTimeout;
+    }
+
+    @Override
+    public String getDkimDomain() {
+        return dkimDomain;
+    }
+
+    public void setDkimDomain(String dkimDomain) {
+        this.dkimDomain = dkimDomain;
+    }
+
+    @Override
+    public String getDkimSelector() {
+        return dkimSelector;
+    }
+
+    public void setDkimSelector(String dkimSelector) {
+        this.dkimSelector = dkimSelector;
+    }
+
+    @Override
+    public String getDkimPrivateKey() {
+        return dkimPrivateKey;
+    }
+
+    public void setDkimPrivateKey(String dkimPrivateKey) {
+        this.dkimPrivateKey = dkimPrivateKey;
+    }
+
     public boolean isValid() {
 
         if (serverHost == null || serverHost.trim().isEmpty()) {
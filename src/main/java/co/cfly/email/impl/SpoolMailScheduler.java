@@ -0,0 +1,345 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.MailScheduler;
+import co.cfly.email.api.MailTransporter;
+import co.cfly.email.impl.util.TimerWheel;
+
+/**
+ * {@link MailScheduler} which persists every scheduled message to a spool directory and tracks due times in a
+ * hierarchical {@link TimerWheel}.
+ * <p>
+ * Messages are serialized to {@code <spool>/<bucket>/<dueMillis>-<uuid>.msg}, where a bucket covers one memory horizon.
+ * Only the current and next bucket are held in the wheel, and only as file paths, so memory stays bounded however far
+ * ahead messages are scheduled. Later buckets are paged in as time reaches them.
+ * <p>
+ * Delivery is at least once: a message is moved to {@code sending/} before it is handed to the {@link MailTransporter}
+ * and deleted afterwards, anything left there after a crash is sent again on startup. A message which fails to send is
+ * spooled again with an exponential backoff, its attempt count kept in the file name, and moved to {@code failed/} once
+ * it has used up its attempts. A retried message can no longer be cancelled by its original id.
+ * <p>
+ * Spooled messages are read back through an {@link ObjectInputFilter} which only admits the classes an
+ * {@link EmailMessage} is made of. Schedulers are created with one of the {@code create} methods, which start the ticker
+ * thread and resend interrupted deliveries.
+ */
+public class SpoolMailScheduler implements MailScheduler, Closeable {
+
+    static final Logger log = Logger.getLogger(SpoolMailScheduler.class.getName());
+
+    private static final long TICK_MILLIS = 1000;
+    private static final int LEVELS = 3;
+    private static final String SUFFIX = ".msg";
+    private static final Pattern ID = Pattern.compile("\\d+/\\d+-[0-9a-f-]{36}\\.msg");
+    private static final String ATTEMPT = "-r";
+    private static final ObjectInputFilter SPOOL_FILTER = ObjectInputFilter.Config.createFilter(String.join(";",
+            "co.cfly.email.api.EmailMessage", "co.cfly.email.api.Header", "co.cfly.email.api.ContentType", "co.cfly.email.api.EmailMessageType",
+            "co.cfly.email.api.MessagePriority", "co.cfly.email.api.ContentDisposition", "co.cfly.email.impl.attachments.BaseAttachment",
+            "co.cfly.email.impl.attachments.FileAttachment", "co.cfly.email.impl.attachments.InputStreamAttachment", "co.cfly.email.impl.attachments.URLAttachment",
+            "jakarta.mail.Address", "jakarta.mail.internet.InternetAddress", "java.lang.Enum", "java.lang.Object", "java.lang.String", "java.util.ArrayList", "java.util.HashSet", "java.util.Map$Entry",
+            "java.util.LinkedHashSet", "java.util.TreeMap", "maxdepth=20", "!*"));
+
+    private final MailTransporter mailTransporter;
+    private final Clock clock;
+    private final Path spoolDirectory;
+    private final Path sendingDirectory;
+    private final Path failedDirectory;
+    private final long bucketMillis;
+    private final TimerWheel<Path> wheel;
+    private final ExecutorService sendExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private Thread ticker;
+    private long loadedBucket = -1;
+    private volatile boolean running = true;
+    private volatile int maxAttempts = 4;
+    private volatile long retryBackoffMillis = Duration.ofMinutes(1).toMillis();
+
+    public static SpoolMailScheduler create(MailTransporter mailTransporter, Path spoolDirectory) {
+        return create(mailTransporter, spoolDirectory, Duration.ofHours(1));
+    }
+
+    /**
+     * @param memoryHorizon how far ahead scheduled messages are held in memory, later ones are only read from disk when
+     *                      they come within this horizon
+     */
+    public static SpoolMailScheduler create(MailTransporter mailTransporter, Path spoolDirectory, Duration memoryHorizon) {
+        return create(mailTransporter, spoolDirectory, memoryHorizon, Clock.systemUTC());
+    }
+
+    /**
+     * @param clock decides when messages are due, see {@link #advance()}
+     */
+    public static SpoolMailScheduler create(MailTransporter mailTransporter, Path spoolDirectory, Duration memoryHorizon, Clock clock) {
+        SpoolMailScheduler scheduler = new SpoolMailScheduler(mailTransporter, spoolDirectory, memoryHorizon, clock);
+        scheduler.start();
+        return scheduler;
+    }
+
+    private SpoolMailScheduler(MailTransporter mailTransporter, Path spoolDirectory, Duration memoryHorizon, Clock clock) {
+        this.mailTransporter = mailTransporter;
+        this.clock = clock;
+        this.spoolDirectory = spoolDirectory;
+        this.sendingDirectory = spoolDirectory.resolve("sending");
+        this.failedDirectory = spoolDirectory.resolve("failed");
+        this.bucketMillis = Math.max(TICK_MILLIS, memoryHorizon.toMillis());
+
+        long now = clock.millis();
+        this.wheel = new TimerWheel<>(TICK_MILLIS, LEVELS, now);
+
+        try {
+            Files.createDirectories(sendingDirectory);
+            Files.createDirectories(failedDirectory);
+            loadBuckets(now);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Unable to open spool " + spoolDirectory, e);
+        }
+    }
+
+    private void start() {
+        // Interrupted deliveries are sent again
+        try (DirectoryStream<Path> interrupted = Files.newDirectoryStream(sendingDirectory, "*" + SUFFIX)) {
+            for (Path file : interrupted) {
+                sendExecutor.execute(() -> send(file));
+            }
+        }
+        catch (IOException e) {
+            sendExecutor.close();
+            throw new UncheckedIOException("Unable to open spool " + spoolDirectory, e);
+        }
+
+        ticker = Thread.ofPlatform().daemon().name("simple-email-scheduler").start(this::tick);
+    }
+
+    /**
+     * Number of times a message is tried before it is moved to {@code failed/}, and the delay before the first retry,
+     * doubled for each further one. Defaults to 4 attempts and 1 minute
+     */
+    public void setRetry(int maxAttempts, Duration backoff) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1 but was: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.retryBackoffMillis = backoff.toMillis();
+    }
+
+    @Override
+    public String schedule(EmailMessage emailMessage, Instant sendAt) {
+        long due = sendAt.toEpochMilli();
+        String id = due / bucketMillis + "/" + due + "-" + UUID.randomUUID() + SUFFIX;
+        Path file = spoolDirectory.resolve(id);
+
+        try {
+            Path temp = Files.createTempFile(spoolDirectory, "schedule", ".tmp");
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeObject(emailMessage);
+            }
+            spool(temp, file, due);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Unable to spool scheduled message to " + file, e);
+        }
+        return id;
+    }
+
+    /**
+     * Under the lock so the bucket cannot be paged in or cleaned up between the move and the check
+     */
+    private synchronized void spool(Path source, Path file, long due) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.move(source, file, StandardCopyOption.ATOMIC_MOVE);
+        if (due / bucketMillis <= loadedBucket) {
+            wheel.schedule(due, file);
+        }
+    }
+
+    @Override
+    public boolean cancel(String id) {
+        if (!ID.matcher(id).matches()) {
+            return false;
+        }
+
+        try {
+            return Files.deleteIfExists(spoolDirectory.resolve(id));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Unable to cancel scheduled message " + id, e);
+        }
+    }
+
+    /**
+     * Number of scheduled messages currently held in memory
+     */
+    public synchronized int getPendingInMemory() {
+        return wheel.size();
+    }
+
+    /**
+     * Send every message which is due by the clock. Called by the scheduler's own thread every second, and may be called
+     * directly after moving a test clock forward.
+     */
+    public void advance() {
+        long now = clock.millis();
+        try {
+            synchronized (this) {
+                loadBuckets(now);
+                wheel.advance(now, file -> sendExecutor.execute(() -> send(file)));
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            log.log(Level.SEVERE, "Unable to advance mail schedule", e);
+        }
+    }
+
+    private void tick() {
+        while (running) {
+            try {
+                Thread.sleep(TICK_MILLIS - System.currentTimeMillis() % TICK_MILLIS);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            advance();
+        }
+    }
+
+    private synchronized void loadBuckets(long now) throws IOException {
+        long target = now / bucketMillis + 1;
+        if (target <= loadedBucket) {
+            return;
+        }
+
+        try (DirectoryStream<Path> buckets = Files.newDirectoryStream(spoolDirectory, entry -> Files.isDirectory(entry) && entry.getFileName().toString().matches("\\d+"))) {
+            for (Path directory : buckets) {
+                long bucket = Long.parseLong(directory.getFileName().toString());
+                if (bucket > loadedBucket && bucket <= target) {
+                    loadBucket(directory);
+                }
+                else if (bucket < now / bucketMillis) {
+                    deleteIfEmpty(directory);
+                }
+            }
+        }
+        loadedBucket = target;
+    }
+
+    private void loadBucket(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                wheel.schedule(Long.parseLong(name.substring(0, name.indexOf('-'))), file);
+            }
+        }
+    }
+
+    private static void deleteIfEmpty(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            if (files.iterator().hasNext()) {
+                return;
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    private void send(Path file) {
+        Path sending = file.startsWith(sendingDirectory) ? file : sendingDirectory.resolve(file.getFileName());
+        try {
+            if (!sending.equals(file)) {
+                Files.move(file, sending, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        catch (NoSuchFileException e) {
+            // Cancelled
+            return;
+        }
+        catch (IOException e) {
+            log.log(Level.SEVERE, "Unable to claim scheduled message " + file, e);
+            return;
+        }
+
+        try {
+            EmailMessage emailMessage;
+            try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(sending)))) {
+                in.setObjectInputFilter(SPOOL_FILTER);
+                emailMessage = (EmailMessage) in.readObject();
+            }
+            mailTransporter.send(emailMessage);
+            Files.delete(sending);
+        }
+        catch (Exception e) {
+            retryOrFail(sending, e);
+        }
+    }
+
+    private void retryOrFail(Path sending, Exception failure) {
+        String name = sending.getFileName().toString();
+        String key = name.substring(name.indexOf('-') + 1, name.length() - SUFFIX.length());
+        int attempts = 1;
+        int marker = key.lastIndexOf(ATTEMPT);
+        if (marker >= 0) {
+            attempts = Integer.parseInt(key.substring(marker + ATTEMPT.length())) + 1;
+            key = key.substring(0, marker);
+        }
+
+        try {
+            if (attempts < maxAttempts) {
+                long due = clock.millis() + (retryBackoffMillis << Math.min(attempts - 1, 20));
+                log.log(Level.WARNING, "Scheduled message %s failed to send, attempt %d of %d, retrying at %s".formatted(name, attempts, maxAttempts, Instant.ofEpochMilli(due)), failure);
+                spool(sending, spoolDirectory.resolve(due / bucketMillis + "/" + due + "-" + key + ATTEMPT + attempts + SUFFIX), due);
+            }
+            else {
+                log.log(Level.WARNING, "Scheduled message %s failed to send after %d attempts".formatted(name, attempts), failure);
+                Files.move(sending, failedDirectory.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException | RuntimeException moveFailure) {
+            log.log(Level.SEVERE, "Unable to move failed message " + sending, moveFailure);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        ticker.interrupt();
+        try {
+            ticker.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sendExecutor.close();
+    }
+}
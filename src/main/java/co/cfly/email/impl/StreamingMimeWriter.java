@@ -0,0 +1,656 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import co.cfly.email.api.ContentDisposition;
+import co.cfly.email.api.ContentType;
+import co.cfly.email.api.DeferredBody;
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.EmailMessageType;
+import co.cfly.email.api.Header;
+import co.cfly.email.api.MailHeader;
+import co.cfly.email.api.MessagePriority;
+import co.cfly.email.api.SendFailedException;
+import co.cfly.email.impl.attachments.BaseAttachment;
+import co.cfly.email.impl.dkim.DkimSigner;
+import co.cfly.email.impl.util.MailUtility;
+import co.cfly.email.impl.util.Strings;
+import jakarta.mail.Session;
+import jakarta.mail.internet.HeaderTokenizer;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeUtility;
+import jakarta.mail.internet.ParameterList;
+import jakarta.mail.internet.ParseException;
+
+/**
+ * Writes an {@link EmailMessage} as MIME straight to a stream or channel in one pass, without building the jakarta.mail
+ * message that {@link MailUtility#createMimeMessage} produces. The multipart structure, headers and transfer encodings
+ * are the same, only the boundaries differ. Output is assembled in pooled buffers, and boundaries are a prefix chosen
+ * once per writer followed by a message sequence number.
+ * <p>
+ * DKIM signing needs the body hashed before the headers are written, so sessions configured for DKIM are rejected and
+ * should use {@link MailUtility#createMimeMessage}. Instances are thread safe.
+ */
+public class StreamingMimeWriter {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int POOL_SIZE = 64;
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("EEE, d MMM yyyy HH:mm:ss Z (z)", Locale.US);
+
+    private static final String SEVEN_BIT = "7bit";
+    private static final String QUOTED_PRINTABLE = "quoted-printable";
+    private static final String BASE64 = "base64";
+
+    // Nesting levels of the multiparts, each has its own boundary
+    private static final int ROOT = 0;
+    private static final int RELATED = 1;
+    private static final int ALTERNATIVE = 2;
+
+    private final String domain;
+    private final byte[][] boundaries = new byte[3][];
+    private final AtomicLong sequence = new AtomicLong();
+    private final BlockingQueue<byte[]> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+    private volatile boolean includeBcc;
+
+    public StreamingMimeWriter(Session session) {
+        if (DkimSigner.forSession(session) != null) {
+            throw new IllegalArgumentException("Session is configured for DKIM signing, which requires MailUtility.createMimeMessage");
+        }
+        String mailerDomainName = session.getProperty(MailUtility.DOMAIN_PROPERTY_KEY);
+        domain = !Strings.isNullOrBlank(mailerDomainName) ? mailerDomainName : MailUtility.getHostName();
+
+        String unique = Long.toHexString(ThreadLocalRandom.current().nextLong()) + "." + System.currentTimeMillis() + ".";
+        for (int level = ROOT; level <= ALTERNATIVE; level++) {
+            boundaries[level] = ("----=_Part_" + level + "_" + unique).getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Write the Bcc header as {@link jakarta.mail.internet.MimeMessage#writeTo} does. False by default, matching what
+     * {@link jakarta.mail.Transport#send} puts on the wire, so blind recipients are not disclosed.
+     */
+    public void setIncludeBcc(boolean includeBcc) {
+        this.includeBcc = includeBcc;
+    }
+
+    /**
+     * Write the message to a stream, which is flushed but not closed
+     *
+     * @return the Message-ID written, without angle brackets
+     */
+    public String writeTo(EmailMessage emailMessage, OutputStream out) throws IOException {
+        return write(emailMessage, new Sink(out, null, acquire()));
+    }
+
+    /**
+     * Write the message to a channel, which is not closed
+     *
+     * @return the Message-ID written, without angle brackets
+     */
+    public String writeTo(EmailMessage emailMessage, WritableByteChannel channel) throws IOException {
+        return write(emailMessage, new Sink(null, channel, acquire()));
+    }
+
+    private byte[] acquire() {
+        byte[] buffer = pool.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    private String write(EmailMessage e, Sink sink) throws IOException {
+        try {
+            Message message = new Message(e, sequence.incrementAndGet(), sink);
+            String messageId = !Strings.isNullOrBlank(e.getMessageId()) ? e.getMessageId() : UUID.randomUUID() + "@" + domain;
+            message.writeHeaders(messageId);
+            message.writeBody();
+            sink.flush();
+            return messageId;
+        }
+        finally {
+            pool.offer(sink.buffer);
+        }
+    }
+
+    /**
+     * Chooses a transfer encoding the way jakarta.mail does: 7bit when every byte is printable ASCII on short lines,
+     * otherwise quoted-printable for text which is mostly ASCII and base64 for anything else
+     */
+    static String encoding(byte[] bytes, boolean text) {
+        int ascii = 0;
+        int nonAscii = 0;
+        int lineLength = 0;
+        boolean longLine = false;
+        for (byte value : bytes) {
+            int b = value & 0xff;
+            if (b == '\r' || b == '\n') {
+                lineLength = 0;
+            }
+            else if (++lineLength > 998) {
+                longLine = true;
+            }
+            if (b >= 0177 || (b < 040 && b != '\r' && b != '\n' && b != '\t')) {
+                if (!text) {
+                    return BASE64;
+                }
+                nonAscii++;
+            }
+            else {
+                ascii++;
+            }
+        }
+        if (nonAscii == 0) {
+            return longLine ? QUOTED_PRINTABLE : SEVEN_BIT;
+        }
+        return ascii > nonAscii ? QUOTED_PRINTABLE : BASE64;
+    }
+
+    /**
+     * The state of writing a single message
+     */
+    private class Message {
+        private final EmailMessage e;
+        private final long id;
+        private final Sink sink;
+        private final Charset charset;
+        private final List<BaseAttachment> attachments;
+
+        Message(EmailMessage e, long id, Sink sink) {
+            this.e = e;
+            this.id = id;
+            this.sink = sink;
+            this.charset = Charset.forName(e.getCharset());
+
+            // Attachments are unique by file name, the last one added wins, and written in the order BaseMailMessage uses
+            Map<String, BaseAttachment> byName = new HashMap<>();
+            for (BaseAttachment attachment : e.getAttachments()) {
+                byName.put(attachment.getFileName(), attachment);
+            }
+            this.attachments = new ArrayList<>(byName.values());
+        }
+
+        void writeHeaders(String messageId) throws IOException {
+            header("Date", DATE.format(ZonedDateTime.now()));
+            addresses("From", e.getFromAddresses());
+            addresses("Reply-To", e.getReplyToAddresses());
+            addresses("To", e.getToAddresses());
+            addresses("Cc", e.getCcAddresses());
+            if (includeBcc) {
+                addresses("Bcc", e.getBccAddresses());
+            }
+            header("Message-ID", "<" + messageId + ">");
+            if (e.getSubject() != null) {
+                header("Subject", MimeUtility.fold(9, MimeUtility.encodeText(e.getSubject(), e.getCharset(), null)));
+            }
+            header("MIME-Version", "1.0");
+            multipartHeader(ROOT, e.getRootContentType().getValue());
+
+            for (InternetAddress address : e.getDeliveryReceiptAddresses()) {
+                header(new Header(MailHeader.DELIVERY_RECIEPT.headerValue(), "<" + address.getAddress() + ">"));
+            }
+            for (InternetAddress address : e.getReadReceiptAddresses()) {
+                header(new Header(MailHeader.READ_RECIEPT.headerValue(), "<" + address.getAddress() + ">"));
+            }
+            MessagePriority importance = e.getImportance();
+            if (importance != null && importance != MessagePriority.NORMAL) {
+                header("X-Priority", importance.getX_priority());
+                header("Priority", importance.getPriority());
+                header("Importance", importance.getImportance());
+            }
+            for (Header header : e.getHeaders()) {
+                header(header);
+            }
+            sink.crlf();
+        }
+
+        /**
+         * Same structure as {@link BaseMailMessage}: the HTML sits in a related multipart with the inline attachments, and
+         * in an alternative multipart with the text when there is both
+         */
+        void writeBody() throws IOException {
+            boolean empty = true;
+
+            if (e.getType() == EmailMessageType.STANDARD) {
+                DeferredBody deferredHtml = e.getDeferredHtmlBody();
+                boolean html = deferredHtml != null || e.getHtmlBody() != null;
+
+                if (html) {
+                    boundary(ROOT);
+                    multipartHeader(RELATED, ContentType.RELATED.getValue());
+                    sink.crlf();
+                    boundary(RELATED);
+                    if (e.getTextBody() != null) {
+                        multipartHeader(ALTERNATIVE, ContentType.ALTERNATIVE.getValue());
+                        sink.crlf();
+                        boundary(ALTERNATIVE);
+                        textPart(e.getTextBody(), "plain");
+                        sink.crlf();
+                        boundary(ALTERNATIVE);
+                        htmlPart(deferredHtml);
+                        sink.crlf();
+                        close(ALTERNATIVE);
+                    }
+                    else {
+                        htmlPart(deferredHtml);
+                    }
+                    sink.crlf();
+                    for (BaseAttachment attachment : attachments) {
+                        if (attachment.getContentDisposition() == ContentDisposition.INLINE) {
+                            boundary(RELATED);
+                            attachmentPart(attachment);
+                            sink.crlf();
+                        }
+                    }
+                    close(RELATED);
+                    sink.crlf();
+                    empty = false;
+                }
+                else if (e.getTextBody() != null) {
+                    boundary(ROOT);
+                    textPart(e.getTextBody(), "plain");
+                    sink.crlf();
+                    empty = false;
+                }
+
+                for (BaseAttachment attachment : attachments) {
+                    // Inline attachments go in the related multipart when there is one
+                    if (attachment.getContentDisposition() == ContentDisposition.ATTACHMENT || !html) {
+                        boundary(ROOT);
+                        attachmentPart(attachment);
+                        sink.crlf();
+                        empty = false;
+                    }
+                }
+            }
+            else if (e.getType() == EmailMessageType.INVITE_ICAL) {
+                boundary(ROOT);
+                if (e.getHtmlBody() != null) {
+                    textPart(e.getHtmlBody(), "html");
+                }
+                else if (e.getTextBody() != null) {
+                    textPart(e.getTextBody(), "plain");
+                }
+                else {
+                    throw new SendFailedException("Invite has no body");
+                }
+                sink.crlf();
+                for (BaseAttachment attachment : attachments) {
+                    boundary(ROOT);
+                    attachmentPart(attachment);
+                    sink.crlf();
+                }
+                empty = false;
+            }
+            else {
+                throw new SendFailedException("Unsupported Message Type: " + e.getType());
+            }
+
+            if (empty) {
+                throw new SendFailedException("Empty multipart: " + e.getRootContentType().getValue());
+            }
+            close(ROOT);
+        }
+
+        private void textPart(String text, String subtype) throws IOException {
+            byte[] bytes = text.getBytes(charset);
+            String encoding = encoding(bytes, true);
+            header("Content-Type", "text/" + subtype + "; charset=" + MimeUtility.quote(e.getCharset(), HeaderTokenizer.MIME));
+            header("Content-Transfer-Encoding", encoding);
+            header("Content-Disposition", ContentDisposition.INLINE.headerValue());
+            sink.crlf();
+            content(bytes, encoding);
+        }
+
+        private void htmlPart(DeferredBody deferredHtml) throws IOException {
+            if (deferredHtml == null) {
+                textPart(e.getHtmlBody(), "html");
+                return;
+            }
+            // Rendered straight into the encoder, so the encoding is fixed rather than chosen from the content
+            header("Content-Type", "text/html; charset=" + MimeUtility.quote(e.getCharset(), HeaderTokenizer.MIME));
+            header("Content-Transfer-Encoding", QUOTED_PRINTABLE);
+            header("Content-Disposition", ContentDisposition.INLINE.headerValue());
+            sink.crlf();
+            QuotedPrintableOutputStream qp = new QuotedPrintableOutputStream(sink);
+            Writer writer = new OutputStreamWriter(qp, charset);
+            deferredHtml.writeTo(writer);
+            writer.flush();
+        }
+
+        private void attachmentPart(BaseAttachment attachment) throws IOException {
+            byte[] bytes = attachment.getBytes();
+            String fileName = attachment.getFileName();
+            jakarta.mail.internet.ContentType contentType;
+            jakarta.mail.internet.ContentDisposition disposition;
+            try {
+                contentType = new jakarta.mail.internet.ContentType(attachment.getMimeType());
+                disposition = new jakarta.mail.internet.ContentDisposition(attachment.getContentDisposition().headerValue());
+            }
+            catch (ParseException ex) {
+                throw new SendFailedException("Unable to write attachment: " + fileName, ex);
+            }
+
+            boolean text = contentType.match("text/*");
+            String encoding = encoding(bytes, text);
+            if (encoding.equals(QUOTED_PRINTABLE) && text && nonAsciiCharset(contentType)) {
+                encoding = BASE64;
+            }
+            if (text && contentType.getParameter("charset") == null) {
+                contentType.setParameter("charset", encoding.equals(SEVEN_BIT) ? "us-ascii" : defaultMimeCharset());
+            }
+            if (fileName != null) {
+                // Encoded per RFC 2231 when not ASCII
+                parameters(disposition.getParameterList(), disposition::setParameterList).set("filename", fileName, defaultMimeCharset());
+                parameters(contentType.getParameterList(), contentType::setParameterList).set("name", fileName, defaultMimeCharset());
+            }
+
+            header("Content-Type", contentType.toString());
+            header("Content-Transfer-Encoding", encoding);
+            if (attachment.getContentDisposition() == ContentDisposition.INLINE && attachment.getContentId() != null) {
+                header("Content-ID", "<" + attachment.getContentId() + ">");
+            }
+            header("Content-Disposition", disposition.toString());
+            for (Header header : attachment.getHeaders()) {
+                header(header);
+            }
+            sink.crlf();
+            content(bytes, encoding);
+        }
+
+        private void content(byte[] bytes, String encoding) throws IOException {
+            switch (encoding) {
+                case SEVEN_BIT -> sink.write(bytes);
+                case QUOTED_PRINTABLE -> {
+                    QuotedPrintableOutputStream qp = new QuotedPrintableOutputStream(sink);
+                    qp.write(bytes);
+                    qp.flush();
+                }
+                default -> {
+                    // Lines of 76 characters separated by CRLF, jakarta.mail also ends a full last line with CRLF
+                    OutputStream base64 = Base64.getMimeEncoder().wrap(sink);
+                    base64.write(bytes);
+                    base64.close();
+                    if (bytes.length > 0 && bytes.length % 57 == 0) {
+                        sink.crlf();
+                    }
+                }
+            }
+        }
+
+        private void addresses(String name, Collection<InternetAddress> addresses) throws IOException {
+            if (!addresses.isEmpty()) {
+                header(name, InternetAddress.toString(addresses.toArray(new InternetAddress[0]), name.length() + 2));
+            }
+        }
+
+        private void header(Header header) throws IOException {
+            header(header.getName(), header.getValue());
+        }
+
+        private void header(String name, String value) throws IOException {
+            sink.ascii(name);
+            sink.ascii(": ");
+            sink.text(value);
+            sink.crlf();
+        }
+
+        private void multipartHeader(int level, String subtype) throws IOException {
+            sink.ascii("Content-Type: multipart/");
+            sink.ascii(subtype);
+            sink.ascii("; \r\n\tboundary=\"");
+            sink.write(boundaries[level]);
+            sink.decimal(id);
+            sink.ascii("\"\r\n");
+        }
+
+        private void boundary(int level) throws IOException {
+            sink.ascii("--");
+            sink.write(boundaries[level]);
+            sink.decimal(id);
+            sink.crlf();
+        }
+
+        private void close(int level) throws IOException {
+            sink.ascii("--");
+            sink.write(boundaries[level]);
+            sink.decimal(id);
+            sink.ascii("--\r\n");
+        }
+    }
+
+    private static ParameterList parameters(ParameterList parameters, Consumer<ParameterList> setter) {
+        if (parameters == null) {
+            parameters = new ParameterList();
+            setter.accept(parameters);
+        }
+        return parameters;
+    }
+
+    private static String defaultMimeCharset() {
+        String charset = System.getProperty("mail.mime.charset");
+        return !Strings.isNullOrBlank(charset) ? charset : MimeUtility.mimeCharset(MimeUtility.getDefaultJavaCharset());
+    }
+
+    /**
+     * True for charsets such as UTF-16 which don't encode line breaks as single ASCII bytes
+     */
+    private static boolean nonAsciiCharset(jakarta.mail.internet.ContentType contentType) {
+        String name = contentType.getParameter("charset");
+        if (name == null) {
+            return false;
+        }
+        try {
+            byte[] crlf = "\r\n".getBytes(Charset.forName(name));
+            return crlf.length != 2 || crlf[0] != '\r' || crlf[1] != '\n';
+        }
+        catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Buffers output in a pooled array and drains it to the stream or channel when full
+     */
+    private static final class Sink extends OutputStream {
+        private final OutputStream out;
+        private final WritableByteChannel channel;
+        private final byte[] buffer;
+        private final ByteBuffer view;
+        private int position;
+
+        Sink(OutputStream out, WritableByteChannel channel, byte[] buffer) {
+            this.out = out;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.view = channel != null ? ByteBuffer.wrap(buffer) : null;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (position == buffer.length) {
+                drain();
+            }
+            buffer[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (position == buffer.length) {
+                    drain();
+                }
+                int n = Math.min(len, buffer.length - position);
+                System.arraycopy(b, off, buffer, position, n);
+                position += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        void ascii(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                write(s.charAt(i));
+            }
+        }
+
+        /**
+         * Header values are ASCII unless the session allows UTF-8 headers
+         */
+        void text(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) >= 0x80) {
+                    write(s.getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+            }
+            ascii(s);
+        }
+
+        void decimal(long value) throws IOException {
+            ascii(Long.toString(value));
+        }
+
+        void crlf() throws IOException {
+            write('\r');
+            write('\n');
+        }
+
+        private void drain() throws IOException {
+            if (out != null) {
+                out.write(buffer, 0, position);
+            }
+            else {
+                view.clear().limit(position);
+                while (view.hasRemaining()) {
+                    channel.write(view);
+                }
+            }
+            position = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            drain();
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() {
+            // Encoders close the stream they wrap, the sink outlives them
+        }
+    }
+
+    /**
+     * Quoted-printable encoder writing the same output as jakarta.mail's: line breaks become CRLF, soft breaks keep lines
+     * to 76 characters and a space is encoded when it ends a line
+     */
+    private static final class QuotedPrintableOutputStream extends OutputStream {
+        private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+        private static final int BYTES_PER_LINE = 75;
+
+        private final Sink out;
+        private int count;
+        private boolean gotSpace;
+        private boolean gotCR;
+
+        QuotedPrintableOutputStream(Sink out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            c &= 0xff;
+            if (gotSpace) {
+                output(' ', c == '\r' || c == '\n');
+                gotSpace = false;
+            }
+            if (c == '\r') {
+                gotCR = true;
+                out.crlf();
+                count = 0;
+                return;
+            }
+            if (c == '\n') {
+                if (!gotCR) {
+                    out.crlf();
+                    count = 0;
+                }
+            }
+            else if (c == ' ') {
+                gotSpace = true;
+            }
+            else {
+                output(c, c < 040 || c >= 0177 || c == '=');
+            }
+            gotCR = false;
+        }
+
+        private void output(int c, boolean encode) throws IOException {
+            if (encode) {
+                if ((count += 3) > BYTES_PER_LINE) {
+                    out.ascii("=\r\n");
+                    count = 3;
+                }
+                out.write('=');
+                out.write(HEX[c >> 4]);
+                out.write(HEX[c & 0xf]);
+            }
+            else {
+                if (++count > BYTES_PER_LINE) {
+                    out.ascii("=\r\n");
+                    count = 1;
+                }
+                out.write(c);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (gotSpace) {
+                output(' ', true);
+                gotSpace = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.locks.StampedLock;
+
+import co.cfly.email.impl.util.Hashing;
+import co.cfly.email.impl.util.LongHashSet;
+import jakarta.mail.internet.InternetAddress;
+
+/**
+ * Set of suppressed, for example bounced or unsubscribed, email addresses.
+ * <p>
+ * Addresses are normalized by trimming and lower casing, then stored only as a 64 bit hash in a primitive open addressing
+ * table, about 16 bytes per address. At a million addresses the chance of any false match is around one in ten million.
+ * Lookups are lock free optimistic reads and may run concurrently with updates.
+ */
+public class SuppressionList {
+
+    private static final int LOAD_BATCH = 4096;
+
+    private final StampedLock lock = new StampedLock();
+    private final LongHashSet hashes;
+
+    public SuppressionList() {
+        this(1024);
+    }
+
+    public SuppressionList(int expectedSize) {
+        hashes = new LongHashSet(expectedSize);
+    }
+
+    public boolean contains(String address) {
+        if (address == null) {
+            return false;
+        }
+
+        long hash = hash(address);
+        long stamp = lock.tryOptimisticRead();
+        boolean found = hashes.contains(hash);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                found = hashes.contains(hash);
+            }
+            finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return found;
+    }
+
+    public boolean contains(InternetAddress address) {
+        return address != null && contains(address.getAddress());
+    }
+
+    public boolean add(String address) {
+        long hash = hash(address);
+        long stamp = lock.writeLock();
+        try {
+            return hashes.add(hash);
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void addAll(Iterable<String> addresses) {
+        long[] batch = new long[LOAD_BATCH];
+        int count = 0;
+        for (String address : addresses) {
+            batch[count++] = hash(address);
+            if (count == batch.length) {
+                addBatch(batch, count);
+                count = 0;
+            }
+        }
+        addBatch(batch, count);
+    }
+
+    public boolean remove(String address) {
+        long hash = hash(address);
+        long stamp = lock.writeLock();
+        try {
+            return hashes.remove(hash);
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Bulk load addresses from a UTF-8 file with one address per line. Blank lines and lines starting with # are ignored.
+     * Addresses are hashed outside the lock and inserted in batches so concurrent lookups are not stalled for the whole load.
+     */
+    public void load(Path file) throws IOException {
+        long[] batch = new long[LOAD_BATCH];
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                batch[count++] = hash(line);
+                if (count == batch.length) {
+                    addBatch(batch, count);
+                    count = 0;
+                }
+            }
+        }
+        addBatch(batch, count);
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return hashes.size();
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void addBatch(long[] batch, int count) {
+        if (count == 0) {
+            return;
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            for (int i = 0; i < count; i++) {
+                hashes.add(batch[i]);
+            }
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private static long hash(String address) {
+        return Hashing.hash64(address.trim().toLowerCase(Locale.ROOT));
+    }
+}
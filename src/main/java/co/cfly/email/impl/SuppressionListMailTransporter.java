@@ -0,0 +1,49 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl;
+
+import java.util.logging.Logger;
+
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.MailTransporter;
+
+/**
+ * {@link MailTransporter} which removes suppressed addresses from the To, Cc and Bcc of a message before it is converted
+ * to MIME. A message left with no recipients is not sent.
+ */
+public class SuppressionListMailTransporter implements MailTransporter {
+
+    static final Logger log = Logger.getLogger(SuppressionListMailTransporter.class.getName());
+
+    private final MailTransporter mailTransporter;
+    private final SuppressionList suppressionList;
+
+    public SuppressionListMailTransporter(MailTransporter mailTransporter, SuppressionList suppressionList) {
+        this.mailTransporter = mailTransporter;
+        this.suppressionList = suppressionList;
+    }
+
+    @Override
+    public EmailMessage send(EmailMessage emailMessage) {
+        emailMessage.getToAddresses().removeIf(suppressionList::contains);
+        emailMessage.getCcAddresses().removeIf(suppressionList::contains);
+        emailMessage.getBccAddresses().removeIf(suppressionList::contains);
+
+        if (emailMessage.getToAddresses().isEmpty() && emailMessage.getCcAddresses().isEmpty() && emailMessage.getBccAddresses().isEmpty()) {
+            log.info("All recipients suppressed, not sending \"%s\"".formatted(emailMessage.getSubject()));
+            return emailMessage;
+        }
+
+        return mailTransporter.send(emailMessage);
+    }
+}
@@ -26,6 +26,8 @@ import jakarta.xml.bind.annotation.XmlElementWrapper;
 
 public class BaseAttachment implements EmailAttachment, Serializable {
 
+    private static final long serialVersionUID = 1L;
+
     private String contentId;
     private String fileName;
     private String mimeType;
@@ -23,6 +23,8 @@ import co.cfly.email.api.Header;
 
 public class FileAttachment extends BaseAttachment {
 
+    private static final long serialVersionUID = 1L;
+
     public FileAttachment(ContentDisposition contentDisposition, Path path) {
         super();
         try {
@@ -22,6 +22,8 @@ import co.cfly.email.impl.util.Streams;
 
 public class InputStreamAttachment extends BaseAttachment {
 
+    private static final long serialVersionUID = 1L;
+
     public InputStreamAttachment(String fileName, String mimeType, ContentDisposition contentDisposition, InputStream inputStream) {
         super();
 
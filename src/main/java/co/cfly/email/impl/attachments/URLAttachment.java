@@ -24,6 +24,8 @@ import jakarta.activation.URLDataSource;
 
 public class URLAttachment extends BaseAttachment {
 
+    private static final long serialVersionUID = 1L;
+
     public URLAttachment(String url, String fileName, ContentDisposition contentDisposition) {
         super();
         URLDataSource uds;
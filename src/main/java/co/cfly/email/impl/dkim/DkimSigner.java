@@ -0,0 +1,289 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl.dkim;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import co.cfly.email.api.MailException;
+import co.cfly.email.impl.util.Strings;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Produces rsa-sha256 DKIM signatures (RFC 6376) using relaxed/relaxed canonicalization.
+ * <p>
+ * Instances are immutable and safe to share between sending threads. Parsed keys and the static part of the signature header
+ * are cached per domain and selector, see {@link #getInstance(String, String, String)}.
+ */
+public class DkimSigner {
+
+    public static final String DOMAIN_PROPERTY_KEY = "co.cfly.email.dkim.domain";
+    public static final String SELECTOR_PROPERTY_KEY = "co.cfly.email.dkim.selector";
+    public static final String PRIVATE_KEY_PROPERTY_KEY = "co.cfly.email.dkim.privateKey";
+
+    public static final String HEADER_NAME = "DKIM-Signature";
+
+    private static final List<String> SIGNED_HEADERS = List.of("From", "Reply-To", "Subject", "Date", "To", "Cc", "Message-ID", "MIME-Version", "Content-Type");
+
+    private static final ConcurrentMap<String, DkimSigner> SIGNERS = new ConcurrentHashMap<>();
+
+    private final String privateKeyPem;
+    private final PrivateKey privateKey;
+    private final String tagPrefix;
+
+    private DkimSigner(String domain, String selector, String privateKeyPem) {
+        this.privateKeyPem = privateKeyPem;
+        this.privateKey = parsePrivateKey(privateKeyPem);
+        this.tagPrefix = "v=1; a=rsa-sha256; c=relaxed/relaxed; d=" + domain + "; s=" + selector + ";";
+    }
+
+    /**
+     * Get the signer for a domain and selector, parsing the key only when it is first seen or has changed
+     *
+     * @param privateKeyPem PKCS#8 PEM encoded RSA private key
+     */
+    public static DkimSigner getInstance(String domain, String selector, String privateKeyPem) {
+        return SIGNERS.compute(domain + "\u0000" + selector, (key, existing) -> {
+            if (existing != null && existing.privateKeyPem.equals(privateKeyPem)) {
+                return existing;
+            }
+            return new DkimSigner(domain, selector, privateKeyPem);
+        });
+    }
+
+    /**
+     * Get the signer configured on the session, if any
+     *
+     * @return the signer, or null if DKIM is not configured
+     */
+    public static DkimSigner forSession(Session session) {
+        String domain = session.getProperty(DOMAIN_PROPERTY_KEY);
+        String selector = session.getProperty(SELECTOR_PROPERTY_KEY);
+        String privateKey = session.getProperty(PRIVATE_KEY_PROPERTY_KEY);
+
+        if (Strings.isNullOrBlank(domain) || Strings.isNullOrBlank(selector) || Strings.isNullOrBlank(privateKey)) {
+            return null;
+        }
+        return getInstance(domain, selector, privateKey);
+    }
+
+    /**
+     * Create a stream which hashes the canonicalized body of a message written to it. Everything up to and including the empty
+     * line terminating the headers is ignored.
+     */
+    public BodyHasher newBodyHasher() {
+        return new BodyHasher();
+    }
+
+    /**
+     * Build the DKIM-Signature header value for the message
+     *
+     * @param bodyHash digest returned by {@link BodyHasher#digest()} for this message
+     */
+    public String sign(MimeMessage message, byte[] bodyHash) throws MessagingException {
+        StringBuilder names = new StringBuilder();
+        StringBuilder canonicalHeaders = new StringBuilder(1024);
+
+        for (String name : SIGNED_HEADERS) {
+            String[] values = message.getHeader(name);
+            if (values == null) {
+                continue;
+            }
+            // Multiple instances are signed bottom-up
+            for (int i = values.length - 1; i >= 0; i--) {
+                if (!names.isEmpty()) {
+                    names.append(':');
+                }
+                names.append(name.toLowerCase());
+                canonicalHeaders.append(canonicalizeHeader(name, values[i])).append("\r\n");
+            }
+        }
+
+        String value = tagPrefix + " t=" + System.currentTimeMillis() / 1000 + "; h=" + names + "; bh=" + Base64.getEncoder().encodeToString(bodyHash) + "; b=";
+        canonicalHeaders.append(canonicalizeHeader(HEADER_NAME, value));
+
+        try {
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(privateKey);
+            signature.update(canonicalHeaders.toString().getBytes(StandardCharsets.UTF_8));
+            value += Base64.getEncoder().encodeToString(signature.sign());
+        }
+        catch (GeneralSecurityException e) {
+            throw new MailException("Unable to create DKIM signature", e);
+        }
+
+        // Folding only replaces single spaces, so relaxed canonicalization of the folded value is unchanged
+        return value.replace("; ", ";\r\n\t");
+    }
+
+    /**
+     * Relaxed header canonicalization: lower case name, unfolded value with runs of whitespace reduced to a single space and
+     * no leading or trailing whitespace
+     */
+    public static String canonicalizeHeader(String name, String value) {
+        StringBuilder sb = new StringBuilder(name.length() + value.length() + 1);
+        sb.append(name.trim().toLowerCase()).append(':');
+
+        boolean started = false;
+        boolean pendingSpace = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\r' || c == '\n') {
+                continue;
+            }
+            if (c == ' ' || c == '\t') {
+                pendingSpace = started;
+                continue;
+            }
+            if (pendingSpace) {
+                sb.append(' ');
+                pendingSpace = false;
+            }
+            started = true;
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static PrivateKey parsePrivateKey(String pem) {
+        String base64 = pem.replaceAll("-----(BEGIN|END)[A-Z ]*-----", "").replaceAll("\\s", "");
+        try {
+            return KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(Base64.getDecoder().decode(base64)));
+        }
+        catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new MailException("Unable to parse DKIM private key, expected PKCS#8 PEM encoded RSA key", e);
+        }
+    }
+
+    /**
+     * Applies relaxed body canonicalization to a written MIME message on the fly and feeds the result into a SHA-256 digest,
+     * so the body hash is ready as soon as the message has been written once.
+     */
+    public static class BodyHasher extends OutputStream {
+
+        private static final byte[] CRLF = { '\r', '\n' };
+
+        private final MessageDigest digest;
+        private final byte[] buffer = new byte[4096];
+        private int count;
+
+        private boolean inBody;
+        private boolean headerLineStart;
+        private boolean lineHasContent;
+        private boolean pendingSpace;
+        private int pendingEmptyLines;
+
+        BodyHasher() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new MailException("SHA-256 not available", e);
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            if (!inBody) {
+                if (b == '\n') {
+                    if (headerLineStart) {
+                        inBody = true;
+                    }
+                    headerLineStart = true;
+                }
+                else if (b != '\r') {
+                    headerLineStart = false;
+                }
+                return;
+            }
+
+            // Bare LFs are sent as CRLF by the SMTP transport, so every LF ends a line
+            if (b == '\r') {
+                return;
+            }
+            if (b == '\n') {
+                if (lineHasContent) {
+                    put(CRLF);
+                }
+                else {
+                    pendingEmptyLines++;
+                }
+                lineHasContent = false;
+                pendingSpace = false;
+                return;
+            }
+            if (b == ' ' || b == '\t') {
+                pendingSpace = true;
+                return;
+            }
+
+            if (!lineHasContent) {
+                for (; pendingEmptyLines > 0; pendingEmptyLines--) {
+                    put(CRLF);
+                }
+                lineHasContent = true;
+            }
+            if (pendingSpace) {
+                put((byte) ' ');
+                pendingSpace = false;
+            }
+            put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+        /**
+         * Complete the hash. Trailing empty lines are dropped and a final CRLF added if the body does not end with one
+         */
+        public byte[] digest() {
+            if (lineHasContent) {
+                put(CRLF);
+            }
+            digest.update(buffer, 0, count);
+            count = 0;
+            return digest.digest();
+        }
+
+        private void put(byte[] bytes) {
+            for (byte b : bytes) {
+                put(b);
+            }
+        }
+
+        private void put(byte b) {
+            if (count == buffer.length) {
+                digest.update(buffer, 0, count);
+                count = 0;
+            }
+            buffer[count++] = b;
+        }
+    }
+}
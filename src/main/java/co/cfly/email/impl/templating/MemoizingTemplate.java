@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl.templating;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import co.cfly.email.api.TemplateProvider;
+import co.cfly.email.impl.util.Hashing;
+import co.cfly.email.impl.util.WeightedLruCache;
+
+/**
+ * {@link TemplateProvider} which caches the rendered output of another template, keyed on the values of a declared set
+ * of context keys. Messages whose declared values are equal reuse the previous render instead of merging again.
+ * <p>
+ * The declared keys must cover everything the template reads from the context, and their values must implement
+ * {@code equals} and {@code hashCode} by value (strings, numbers, records, ...). Cached output is bounded by the total
+ * number of rendered characters and evicted least recently used first, see {@link WeightedLruCache}.
+ */
+public class MemoizingTemplate implements TemplateProvider {
+
+    private final TemplateProvider delegate;
+    private final String[] keys;
+    private final WeightedLruCache<ContextKey, String> cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param delegate template to render on a cache miss
+     * @param maxWeight maximum number of rendered characters to keep cached
+     * @param keys context keys the rendered output depends on
+     */
+    public MemoizingTemplate(TemplateProvider delegate, long maxWeight, String... keys) {
+        this.delegate = delegate;
+        this.keys = keys.clone();
+        this.cache = new WeightedLruCache<>(maxWeight, String::length);
+    }
+
+    @Override
+    public String merge(Map<String, Object> context) {
+        Object[] values = new Object[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = context.get(keys[i]);
+        }
+        ContextKey key = new ContextKey(values);
+
+        String rendered = cache.get(key);
+        if (rendered != null) {
+            hits.increment();
+            return rendered;
+        }
+
+        misses.increment();
+        // Render outside the lock, a racing duplicate render is harmless
+        rendered = delegate.merge(context);
+        cache.put(key, rendered);
+        return rendered;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the total number of rendered characters currently cached
+     */
+    public long getWeight() {
+        return cache.getWeight();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    private static final class ContextKey {
+        private final Object[] values;
+        private final long hash;
+
+        ContextKey(Object[] values) {
+            this.values = values;
+            this.hash = Hashing.mix(Arrays.hashCode(values));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ContextKey other && hash == other.hash && Arrays.equals(values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash >>> 32);
+        }
+    }
+}
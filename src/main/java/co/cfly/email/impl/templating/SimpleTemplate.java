@@ -0,0 +1,434 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl.templating;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.RecordComponent;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import co.cfly.email.api.EmailContact;
+import co.cfly.email.api.MailContext;
+import co.cfly.email.api.StreamingTemplateProvider;
+import co.cfly.email.api.TemplatingException;
+
+/**
+ * Logic-less template engine using a Mustache style syntax. Templates are compiled once into a flat instruction array
+ * and rendered by walking it, with no parsing or reflection on the send path.
+ * <ul>
+ * <li>{@code {{name}}} and {@code {{person.name}}} insert a value, HTML escaped if the template was created with
+ * {@code escapeHtml}</li>
+ * <li>{@code {{{name}}}} and {@code {{& name}}} insert a value without escaping</li>
+ * <li>{@code {{#items}}...{{/items}}} renders the block once per element of a collection or array, once with the value
+ * pushed as the current scope for other non-empty values, and not at all for null, false and empty values</li>
+ * <li>{@code {{^items}}...{{/items}}} renders the block only when the value is null, false or empty</li>
+ * <li>{@code {{.}}} inserts the current scope, {@code {{! text}}} is a comment</li>
+ * </ul>
+ * Names are looked up in {@link Map}s, record components, {@link EmailContact#getName() name} and
+ * {@link EmailContact#getAddress() address} of contacts, and {@code {{mailContext.logo.png}}} resolves the content id of
+ * the inline attachment named by the rest of the path. Missing values render as nothing. Section, inverted and comment
+ * tags alone on a line do not leave a blank line behind.
+ */
+public class SimpleTemplate implements StreamingTemplateProvider {
+
+    private static final byte TEXT = 0;
+    private static final byte VALUE = 1;
+    private static final byte RAW_VALUE = 2;
+    private static final byte SECTION = 3;
+    private static final byte INVERTED = 4;
+
+    private static final String[] CURRENT = new String[0];
+
+    // Record accessors are looked up once per type and then invoked through method handles
+    private static final ClassValue<Map<String, MethodHandle>> RECORD_COMPONENTS = new ClassValue<>() {
+        @Override
+        protected Map<String, MethodHandle> computeValue(Class<?> type) {
+            Map<String, MethodHandle> accessors = new HashMap<>();
+            for (RecordComponent component : type.getRecordComponents()) {
+                Method accessor = component.getAccessor();
+                accessor.trySetAccessible();
+                try {
+                    accessors.put(component.getName(), MethodHandles.lookup().unreflect(accessor));
+                }
+                catch (IllegalAccessException e) {
+                    throw new TemplatingException("Unable to access record component " + type.getName() + "." + component.getName(), e);
+                }
+            }
+            return accessors;
+        }
+    };
+
+    private final boolean escapeHtml;
+    private final byte[] ops;
+    // TEXT holds a String, the other instructions the path of the value they read
+    private final Object[] operands;
+    // For sections the index of the first instruction after the block
+    private final int[] ends;
+    private final int sizeHint;
+
+    public SimpleTemplate(String template) {
+        this(template, false);
+    }
+
+    public SimpleTemplate(String template, boolean escapeHtml) {
+        this.escapeHtml = escapeHtml;
+
+        Compiler compiler = new Compiler(template);
+        compiler.compile();
+        int count = compiler.ops.size();
+        ops = new byte[count];
+        operands = compiler.operands.toArray();
+        ends = new int[count];
+        int textLength = 0;
+        for (int i = 0; i < count; i++) {
+            ops[i] = compiler.ops.get(i);
+            ends[i] = compiler.ends.get(i);
+            if (ops[i] == TEXT) {
+                textLength += ((String) operands[i]).length();
+            }
+        }
+        sizeHint = textLength + 16 * count;
+    }
+
+    public SimpleTemplate(File file) throws IOException {
+        this(Files.readString(file.toPath()));
+    }
+
+    @Override
+    public String merge(Map<String, Object> context) {
+        StringBuilder sb = new StringBuilder(sizeHint);
+        try {
+            render(0, ops.length, new Scope(context), sb);
+        }
+        catch (IOException e) {
+            // StringBuilder does not throw
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void mergeTo(Map<String, Object> context, Writer writer) throws IOException {
+        render(0, ops.length, new Scope(context), writer);
+    }
+
+    private void render(int from, int to, Scope scope, Appendable out) throws IOException {
+        int i = from;
+        while (i < to) {
+            switch (ops[i]) {
+                case TEXT -> out.append((String) operands[i]);
+                case VALUE -> write(resolve((String[]) operands[i], scope), escapeHtml, out);
+                case RAW_VALUE -> write(resolve((String[]) operands[i], scope), false, out);
+                case SECTION -> {
+                    Object value = resolve((String[]) operands[i], scope);
+                    if (value instanceof Iterable<?> items) {
+                        for (Object item : items) {
+                            renderScoped(i + 1, ends[i], scope, item, out);
+                        }
+                    }
+                    else if (value instanceof Object[] items) {
+                        for (Object item : items) {
+                            renderScoped(i + 1, ends[i], scope, item, out);
+                        }
+                    }
+                    else if (value instanceof Boolean flag) {
+                        if (flag) {
+                            render(i + 1, ends[i], scope, out);
+                        }
+                    }
+                    else if (!isEmpty(value)) {
+                        renderScoped(i + 1, ends[i], scope, value, out);
+                    }
+                    i = ends[i];
+                    continue;
+                }
+                case INVERTED -> {
+                    if (isEmpty(resolve((String[]) operands[i], scope))) {
+                        render(i + 1, ends[i], scope, out);
+                    }
+                    i = ends[i];
+                    continue;
+                }
+                default -> throw new IllegalStateException("Unknown instruction " + ops[i]);
+            }
+            i++;
+        }
+    }
+
+    private void renderScoped(int from, int to, Scope scope, Object value, Appendable out) throws IOException {
+        scope.push(value);
+        try {
+            render(from, to, scope, out);
+        }
+        finally {
+            scope.pop();
+        }
+    }
+
+    private static boolean isEmpty(Object value) {
+        return value == null || Boolean.FALSE.equals(value) || (value instanceof Collection<?> c && c.isEmpty()) ||
+                (value instanceof Object[] a && a.length == 0) || (value instanceof CharSequence s && s.length() == 0);
+    }
+
+    private static Object resolve(String[] path, Scope scope) {
+        if (path.length == 0) {
+            return scope.top();
+        }
+        // The first name is looked up from the innermost scope outwards, the rest of the path from the value found
+        for (int depth = scope.depth - 1; depth >= 0; depth--) {
+            Object value = property(scope.values[depth], path[0]);
+            if (value != null) {
+                return path.length == 1 ? value : lookup(value, path, 1);
+            }
+        }
+        return null;
+    }
+
+    private static Object lookup(Object value, String[] path, int from) {
+        Object current = value;
+        for (int i = from; i < path.length && current != null; i++) {
+            if (current instanceof MailContext mailContext) {
+                // Attachment names contain dots, so the remainder of the path is the file name
+                return mailContext.insert(String.join(".", List.of(path).subList(i, path.length)));
+            }
+            current = property(current, path[i]);
+        }
+        return current;
+    }
+
+    private static Object property(Object target, String name) {
+        if (target instanceof Map<?, ?> map) {
+            return map.get(name);
+        }
+        if (target instanceof Record) {
+            MethodHandle accessor = RECORD_COMPONENTS.get(target.getClass()).get(name);
+            if (accessor == null) {
+                return null;
+            }
+            try {
+                return accessor.invoke(target);
+            }
+            catch (Throwable e) {
+                throw new TemplatingException("Error reading record component " + name, e);
+            }
+        }
+        if (target instanceof EmailContact contact) {
+            return switch (name) {
+                case "name" -> contact.getName();
+                case "address" -> contact.getAddress();
+                default -> null;
+            };
+        }
+        return null;
+    }
+
+    private static void write(Object value, boolean escape, Appendable out) throws IOException {
+        if (value == null) {
+            return;
+        }
+        CharSequence text = value instanceof CharSequence cs ? cs : String.valueOf(value);
+        if (!escape) {
+            out.append(text);
+            return;
+        }
+
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            String entity = switch (text.charAt(i)) {
+                case '&' -> "&amp;";
+                case '<' -> "&lt;";
+                case '>' -> "&gt;";
+                case '"' -> "&quot;";
+                case '\'' -> "&#39;";
+                default -> null;
+            };
+            if (entity != null) {
+                out.append(text, start, i).append(entity);
+                start = i + 1;
+            }
+        }
+        out.append(text, start, text.length());
+    }
+
+    private static class Scope {
+        private Object[] values = new Object[8];
+        private int depth;
+
+        Scope(Object root) {
+            values[depth++] = root;
+        }
+
+        void push(Object value) {
+            if (depth == values.length) {
+                Object[] grown = new Object[depth * 2];
+                System.arraycopy(values, 0, grown, 0, depth);
+                values = grown;
+            }
+            values[depth++] = value;
+        }
+
+        void pop() {
+            values[--depth] = null;
+        }
+
+        Object top() {
+            return values[depth - 1];
+        }
+    }
+
+    private static class Compiler {
+        private final String source;
+        private final List<Byte> ops = new ArrayList<>();
+        private final List<Object> operands = new ArrayList<>();
+        private final List<Integer> ends = new ArrayList<>();
+        private final Deque<Integer> open = new ArrayDeque<>();
+
+        Compiler(String source) {
+            this.source = source;
+        }
+
+        void compile() {
+            int textStart = 0;
+            int pos = 0;
+            while ((pos = source.indexOf("{{", pos)) >= 0) {
+                boolean triple = source.startsWith("{{{", pos);
+                int close = source.indexOf(triple ? "}}}" : "}}", pos + (triple ? 3 : 2));
+                if (close < 0) {
+                    throw error("Unterminated tag", pos);
+                }
+                int tagEnd = close + (triple ? 3 : 2);
+                String tag = source.substring(pos + (triple ? 3 : 2), close).trim();
+
+                char type = triple || tag.isEmpty() ? '{' : tag.charAt(0);
+                boolean blockTag = type == '#' || type == '^' || type == '/' || type == '!';
+
+                // A block tag alone on its line takes the line's indentation and line break with it
+                int lineStart = source.lastIndexOf('\n', pos - 1) + 1;
+                int lineEnd = lineEnd(tagEnd);
+                boolean standalone = blockTag && lineStart >= textStart && isBlank(lineStart, pos) && lineEnd >= 0;
+
+                text(textStart, standalone ? lineStart : pos);
+                textStart = standalone ? lineEnd : tagEnd;
+                pos = tagEnd;
+
+                switch (type) {
+                    case '!' -> {
+                        // Comment
+                    }
+                    case '#', '^' -> {
+                        open.push(ops.size());
+                        add(type == '#' ? SECTION : INVERTED, path(tag.substring(1).trim(), pos));
+                    }
+                    case '/' -> {
+                        String name = tag.substring(1).trim();
+                        if (open.isEmpty()) {
+                            throw error("Unexpected close of section " + name, pos);
+                        }
+                        int start = open.pop();
+                        String opened = String.join(".", (String[]) operands.get(start));
+                        if (!opened.equals(name)) {
+                            throw error("Section " + opened + " closed by " + name, pos);
+                        }
+                        ends.set(start, ops.size());
+                    }
+                    case '&' -> add(RAW_VALUE, path(tag.substring(1).trim(), pos));
+                    case '{' -> add(RAW_VALUE, path(tag, pos));
+                    default -> add(VALUE, path(tag, pos));
+                }
+            }
+            text(textStart, source.length());
+
+            if (!open.isEmpty()) {
+                throw error("Unclosed section " + String.join(".", (String[]) operands.get(open.peek())), source.length());
+            }
+        }
+
+        private void text(int from, int to) {
+            if (to > from) {
+                add(TEXT, source.substring(from, to));
+            }
+        }
+
+        private void add(byte op, Object operand) {
+            ops.add(op);
+            operands.add(operand);
+            ends.add(0);
+        }
+
+        /**
+         * Get the index just past the line break following a tag, if only whitespace follows it on the line
+         */
+        private int lineEnd(int from) {
+            for (int i = from; i < source.length(); i++) {
+                char c = source.charAt(i);
+                if (c == '\n') {
+                    return i + 1;
+                }
+                if (c != ' ' && c != '\t' && c != '\r') {
+                    return -1;
+                }
+            }
+            return source.length();
+        }
+
+        private boolean isBlank(int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (source.charAt(i) != ' ' && source.charAt(i) != '\t') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String[] path(String name, int pos) {
+            if (name.equals(".")) {
+                return CURRENT;
+            }
+            if (name.isEmpty() || name.startsWith(".") || name.endsWith(".") || name.contains("..")) {
+                throw error("Invalid name '" + name + "'", pos);
+            }
+
+            List<String> segments = new ArrayList<>();
+            int start = 0;
+            int dot;
+            while ((dot = name.indexOf('.', start)) >= 0) {
+                segments.add(name.substring(start, dot));
+                start = dot + 1;
+            }
+            segments.add(name.substring(start));
+            return segments.toArray(new String[0]);
+        }
+
+        private TemplatingException error(String message, int pos) {
+            int line = 1;
+            for (int i = 0; i < pos && i < source.length(); i++) {
+                if (source.charAt(i) == '\n') {
+                    line++;
+                }
+            }
+            return new TemplatingException("Unable to parse template: " + message + " at line " + line);
+        }
+    }
+}
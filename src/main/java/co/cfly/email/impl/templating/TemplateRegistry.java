@@ -0,0 +1,292 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl.templating;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import co.cfly.email.api.StreamingTemplateProvider;
+import co.cfly.email.api.TemplateProvider;
+import co.cfly.email.api.TemplatingException;
+
+/**
+ * Named registry of compiled templates, loaded from directories or the classpath once and served from memory.
+ * <p>
+ * Templates loaded from a directory are named by their path relative to it, using / as the separator. Once
+ * {@link #watch()} is called, directories are monitored and changed templates are recompiled and swapped in atomically;
+ * a template which fails to compile is logged and the previous version kept. A deleted template, or every template below
+ * a deleted directory, is only removed once it is still missing after a grace period, so an editor saving by delete and
+ * create never leaves it unavailable. Providers returned by {@link #get(String)} always render the current version, so
+ * they may be held on to.
+ */
+public class TemplateRegistry implements Closeable {
+
+    static final Logger log = Logger.getLogger(TemplateRegistry.class.getName());
+
+    private final Function<String, ? extends TemplateProvider> compiler;
+    private final Map<String, TemplateProvider> templates = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private final Map<Path, Path> roots = new ConcurrentHashMap<>();
+    private final Map<Path, PendingDeletion> pendingDeletions = new HashMap<>();
+    private volatile long deleteGraceMillis = 1000;
+    private WatchService watchService;
+    private Thread watcher;
+
+    /**
+     * @param compiler compiles template source, eg {@code VelocityTemplate::new}
+     */
+    public TemplateRegistry(Function<String, ? extends TemplateProvider> compiler) {
+        this.compiler = compiler;
+    }
+
+    /**
+     * Compile and register a template from source
+     */
+    public void register(String name, String source) {
+        templates.put(name, compiler.apply(source));
+    }
+
+    /**
+     * Load every file below the directory
+     */
+    public void loadDirectory(Path directory) throws IOException {
+        Path root = directory.toAbsolutePath().normalize();
+        load(root, root);
+    }
+
+    private synchronized void load(Path start, Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(start)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isRegularFile(file)) {
+                    register(name(root, file), Files.readString(file));
+                }
+                else if (Files.isDirectory(file)) {
+                    roots.put(file, root);
+                    if (watchService != null) {
+                        watch(file);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Load a template from the classpath, registered under its resource name
+     */
+    public void loadResource(String resourceName) throws IOException {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        try (InputStream in = (classLoader != null ? classLoader : TemplateRegistry.class.getClassLoader()).getResourceAsStream(resourceName)) {
+            if (in == null) {
+                throw new TemplatingException("Template resource not found: " + resourceName);
+            }
+            register(resourceName, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Get a provider which renders the named template
+     *
+     * @throws TemplatingException if no template has that name
+     */
+    public TemplateProvider get(String name) {
+        if (!templates.containsKey(name)) {
+            throw new TemplatingException("No template registered as " + name);
+        }
+        return new NamedTemplate(name);
+    }
+
+    public boolean contains(String name) {
+        return templates.containsKey(name);
+    }
+
+    /**
+     * Get the names of all registered templates
+     */
+    public Set<String> getNames() {
+        return Set.copyOf(templates.keySet());
+    }
+
+    /**
+     * How long a deleted file must stay missing before its template is removed. Defaults to 1 second
+     */
+    public void setDeleteGracePeriod(Duration deleteGracePeriod) {
+        this.deleteGraceMillis = deleteGracePeriod.toMillis();
+    }
+
+    /**
+     * Start watching the loaded directories for changes
+     */
+    public synchronized void watch() throws IOException {
+        if (watchService != null) {
+            return;
+        }
+
+        watchService = FileSystems.getDefault().newWatchService();
+        for (Path directory : roots.keySet()) {
+            watch(directory);
+        }
+        watcher = Thread.ofPlatform().daemon().name("simple-email-template-watcher").start(this::processEvents);
+    }
+
+    private void watch(Path directory) throws IOException {
+        WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        watchedDirectories.put(key, directory);
+    }
+
+    private void processEvents() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = pendingDeletions.isEmpty() ? watchService.take() : watchService.poll(deleteGraceMillis, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            confirmDeletions(System.currentTimeMillis());
+            if (key == null) {
+                continue;
+            }
+
+            Path directory = watchedDirectories.get(key);
+            if (directory != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.context() instanceof Path changed) {
+                        reload(directory, directory.resolve(changed), event.kind());
+                    }
+                }
+            }
+
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+            }
+        }
+    }
+
+    private void reload(Path directory, Path file, WatchEvent.Kind<?> kind) {
+        Path root = roots.get(directory);
+        String name = name(root, file);
+
+        try {
+            if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                pendingDeletions.put(file, new PendingDeletion(name, System.currentTimeMillis() + deleteGraceMillis));
+            }
+            else if (Files.isDirectory(file)) {
+                pendingDeletions.keySet().removeIf(deleted -> deleted.startsWith(file));
+                load(file, root);
+            }
+            else if (Files.isRegularFile(file)) {
+                pendingDeletions.remove(file);
+                register(name, Files.readString(file));
+                log.fine(() -> "Reloaded template " + name);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            log.log(Level.WARNING, "Unable to reload template " + name + ", keeping previous version", e);
+        }
+    }
+
+    private void confirmDeletions(long now) {
+        for (var it = pendingDeletions.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Path, PendingDeletion> deletion = it.next();
+            Path file = deletion.getKey();
+            if (deletion.getValue().deadline() > now) {
+                continue;
+            }
+            it.remove();
+            if (Files.exists(file)) {
+                continue;
+            }
+
+            // The path may have been a directory, so drop everything which was below it too
+            String name = deletion.getValue().name();
+            templates.keySet().removeIf(template -> template.equals(name) || template.startsWith(name + "/"));
+            roots.keySet().removeIf(directory -> directory.startsWith(file));
+            log.fine(() -> "Removed deleted template " + name);
+        }
+    }
+
+    private static String name(Path root, Path file) {
+        return root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            try {
+                watcher.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private record PendingDeletion(String name, long deadline) {
+    }
+
+    private class NamedTemplate implements StreamingTemplateProvider {
+
+        private final String name;
+
+        NamedTemplate(String name) {
+            this.name = name;
+        }
+
+        private TemplateProvider current() {
+            TemplateProvider template = templates.get(name);
+            if (template == null) {
+                throw new TemplatingException("Template " + name + " has been removed");
+            }
+            return template;
+        }
+
+        @Override
+        public String merge(Map<String, Object> context) {
+            return current().merge(context);
+        }
+
+        @Override
+        public void mergeTo(Map<String, Object> context, Writer writer) throws IOException {
+            TemplateProvider template = current();
+            if (template instanceof StreamingTemplateProvider streaming) {
+                streaming.mergeTo(context, writer);
+            }
+            else {
+                writer.write(template.merge(context));
+            }
+        }
+    }
+}
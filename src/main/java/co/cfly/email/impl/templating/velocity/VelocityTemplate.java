@@ -14,25 +14,38 @@ package co.cfly.email.impl.templating.velocity;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
-import co.cfly.email.api.TemplateProvider;
+import co.cfly.email.api.LayeredTemplateContext;
+import co.cfly.email.api.StreamingTemplateProvider;
 import co.cfly.email.api.TemplatingException;
+import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
 import org.apache.velocity.exception.MethodInvocationException;
 import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.parser.ParseException;
 
-public class VelocityTemplate implements TemplateProvider {
-    private VelocityEngine velocityEngine;
-    private String template;
+/**
+ * Velocity template which is parsed once, when constructed, on an engine shared by all templates. Merging only walks the
+ * compiled tree, so one instance can be reused across messages and threads.
+ */
+public class VelocityTemplate implements StreamingTemplateProvider {
+
+    private static final RuntimeInstance RUNTIME = createRuntime();
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final Template template;
 
     public VelocityTemplate(String template) {
-        velocityEngine = new VelocityEngine();
-        this.template = template;
+        this.template = compile(template);
     }
 
     public VelocityTemplate(File file) throws IOException {
@@ -42,10 +55,19 @@ public class VelocityTemplate implements TemplateProvider {
     @Override
     public String merge(Map<String, Object> context) {
         final StringWriter writer = new StringWriter();
-        final VelocityContext velocityContext = new VelocityContext(context);
+        mergeTo(context, writer);
+        return writer.toString();
+    }
+
+    @Override
+    public void mergeTo(Map<String, Object> context, Writer writer) {
+        // Chain the layers rather than merging them so the shared base is never copied, #set only writes to the overlay
+        final VelocityContext velocityContext = context instanceof LayeredTemplateContext layered ?
+                new VelocityContext(layered.getOverlay(), new VelocityContext(layered.getBase())) :
+                new VelocityContext(context);
 
         try {
-            velocityEngine.evaluate(velocityContext, writer, "mailGenerated", template);
+            template.merge(velocityContext, writer);
         }
         catch (ResourceNotFoundException | ParseErrorException e) {
             throw new TemplatingException("Unable to find template", e);
@@ -53,7 +75,28 @@ public class VelocityTemplate implements TemplateProvider {
         catch (MethodInvocationException e) {
             throw new TemplatingException("Error processing method referenced in context", e);
         }
+    }
 
-        return writer.toString();
+    private static Template compile(String source) {
+        Template template = new Template();
+        // Unique names keep inline macros of different templates apart
+        template.setName("mailGenerated-" + SEQUENCE.incrementAndGet());
+        template.setRuntimeServices(RUNTIME);
+
+        try {
+            template.setData(RUNTIME.parse(new StringReader(source), template));
+            template.initDocument();
+        }
+        catch (ParseException | ParseErrorException e) {
+            throw new TemplatingException("Unable to parse template", e);
+        }
+        return template;
+    }
+
+    private static RuntimeInstance createRuntime() {
+        RuntimeInstance runtime = new RuntimeInstance();
+        runtime.setProperty(RuntimeConstants.VM_PERM_INLINE_LOCAL, true);
+        runtime.init();
+        return runtime;
     }
 }
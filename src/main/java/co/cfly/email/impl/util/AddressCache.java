@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import jakarta.mail.internet.InternetAddress;
+
+/**
+ * Bounded LRU cache of parsed and validated {@link InternetAddress}es. The cache is split into independently locked
+ * stripes so concurrent senders rarely contend. {@link InternetAddress} is mutable, so callers always receive a copy and
+ * the cached instance is never exposed. Invalid addresses are not cached.
+ */
+public class AddressCache {
+
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public AddressCache(int maxEntries) {
+        int perStripe = Math.max(1, maxEntries / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    public InternetAddress get(String key, Function<String, InternetAddress> parser) {
+        Stripe stripe = stripes[(int) Hashing.mix(key.hashCode()) & (STRIPES - 1)];
+
+        InternetAddress cached;
+        synchronized (stripe) {
+            cached = stripe.get(key);
+        }
+
+        if (cached == null) {
+            // Parse outside the lock, a racing duplicate parse is harmless
+            cached = parser.apply(key);
+            synchronized (stripe) {
+                stripe.put(key, cached);
+            }
+        }
+        return (InternetAddress) cached.clone();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private static class Stripe extends LinkedHashMap<String, InternetAddress> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        Stripe(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, InternetAddress> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl.util;
+
+import java.io.UnsupportedEncodingException;
+
+import jakarta.mail.internet.InternetAddress;
+
+/**
+ * Single pass parser for RFC 5322 mailboxes of the form {@code a@b.com}, {@code Name <a@b.com>} or
+ * {@code "Last, First" <a@b.com>}. Invalid input is reported through {@link #getError()} rather than by throwing, and a
+ * valid address is returned without being re-parsed by {@link InternetAddress}.
+ * <p>
+ * Accepts what {@code new InternetAddress(address, true)} accepts, except that comments are not supported, domain labels
+ * may not start or end with a hyphen and non-ASCII characters in the address are rejected unless SMTPUTF8 is enabled, either by the
+ * {@code mail.mime.allowutf8} system property or explicitly. Display names may always be non-ASCII, they are encoded when
+ * written.
+ * <p>
+ * Instances are not thread safe but may be reused for any number of addresses.
+ */
+public class AddressParser {
+
+    public static final String EMPTY = "Address is empty";
+    public static final String MISSING_AT = "Address is missing @";
+    public static final String INVALID_LOCAL_PART = "Local part is invalid";
+    public static final String INVALID_DOMAIN = "Domain is invalid";
+    public static final String INVALID_DISPLAY_NAME = "Display name is invalid";
+    public static final String UNTERMINATED_ANGLE_ADDRESS = "Missing closing >";
+    public static final String TOO_LONG = "Address is too long";
+
+    private static final int MAX_LOCAL_PART = 64;
+    private static final int MAX_ADDRESS = 254;
+    private static final boolean SYSTEM_ALLOW_UTF8 = Boolean.getBoolean("mail.mime.allowutf8");
+
+    private final boolean allowUtf8;
+    private String error;
+
+    /**
+     * Allows non-ASCII addresses if the {@code mail.mime.allowutf8} system property is true, read once as
+     * {@link InternetAddress} does
+     */
+    public AddressParser() {
+        this(SYSTEM_ALLOW_UTF8);
+    }
+
+    /**
+     * @param allowUtf8 accept non-ASCII characters in the local part and domain, only for relays supporting SMTPUTF8
+     */
+    public AddressParser(boolean allowUtf8) {
+        this.allowUtf8 = allowUtf8;
+    }
+
+    /**
+     * Parse a mailbox, optionally with a display name
+     *
+     * @return the address or null if invalid, in which case {@link #getError()} gives the reason
+     */
+    public InternetAddress parse(String mailbox) {
+        error = null;
+        if (mailbox == null) {
+            return fail(EMPTY);
+        }
+
+        int start = skipWhitespace(mailbox, 0);
+        int end = trimEnd(mailbox, start);
+        if (start == end) {
+            return fail(EMPTY);
+        }
+
+        if (mailbox.charAt(end - 1) != '>') {
+            int open = lastUnquoted(mailbox, start, end, '<');
+            if (open >= 0) {
+                return fail(UNTERMINATED_ANGLE_ADDRESS);
+            }
+            return build(mailbox, start, end, null);
+        }
+
+        int open = lastUnquoted(mailbox, start, end, '<');
+        if (open < 0) {
+            return fail(INVALID_LOCAL_PART);
+        }
+
+        String personal = displayName(mailbox, start, trimEnd(mailbox, start, open));
+        if (error != null) {
+            return null;
+        }
+        return build(mailbox, open + 1, end - 1, personal);
+    }
+
+    /**
+     * Parse a bare address with a separately supplied display name
+     */
+    public InternetAddress parse(String address, String personal) {
+        error = null;
+        if (address == null) {
+            return fail(EMPTY);
+        }
+
+        int start = skipWhitespace(address, 0);
+        int end = trimEnd(address, start);
+        if (start == end) {
+            return fail(EMPTY);
+        }
+        return build(address, start, end, Strings.isNullOrBlank(personal) ? null : personal);
+    }
+
+    /**
+     * @return the reason the last address was rejected, or null if it was valid
+     */
+    public String getError() {
+        return error;
+    }
+
+    private InternetAddress build(String s, int start, int end, String personal) {
+        if (end - start > MAX_ADDRESS) {
+            return fail(TOO_LONG);
+        }
+
+        int at = lastUnquoted(s, start, end, '@');
+        if (at < 0) {
+            return fail(MISSING_AT);
+        }
+        if (!validLocalPart(s, start, at)) {
+            return fail(at - start > MAX_LOCAL_PART ? TOO_LONG : INVALID_LOCAL_PART);
+        }
+        if (!validDomain(s, at + 1, end)) {
+            return fail(INVALID_DOMAIN);
+        }
+
+        InternetAddress internetAddress = new InternetAddress();
+        internetAddress.setAddress(start == 0 && end == s.length() ? s : s.substring(start, end));
+        if (personal != null) {
+            try {
+                internetAddress.setPersonal(personal);
+            }
+            catch (UnsupportedEncodingException e) {
+                return fail(INVALID_DISPLAY_NAME);
+            }
+        }
+        return internetAddress;
+    }
+
+    private String displayName(String s, int start, int end) {
+        if (start == end) {
+            return null;
+        }
+
+        if (s.charAt(start) == '"') {
+            if (end - start < 2 || s.charAt(end - 1) != '"') {
+                fail(INVALID_DISPLAY_NAME);
+                return null;
+            }
+            StringBuilder sb = null;
+            for (int i = start + 1; i < end - 1; i++) {
+                char c = s.charAt(i);
+                if (c == '\\' && i + 1 < end - 1) {
+                    if (sb == null) {
+                        sb = new StringBuilder(end - start).append(s, start + 1, i);
+                    }
+                    sb.append(s.charAt(++i));
+                }
+                else if (c == '"' || c == '\\') {
+                    fail(INVALID_DISPLAY_NAME);
+                    return null;
+                }
+                else if (sb != null) {
+                    sb.append(c);
+                }
+            }
+            return sb != null ? sb.toString() : s.substring(start + 1, end - 1);
+        }
+
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '<' || c == '>' || c == '@' || c == ',' || c == ';' || c == ':' || c == '\\' || c < 0x20 || c == 0x7f) {
+                fail(INVALID_DISPLAY_NAME);
+                return null;
+            }
+        }
+        return s.substring(start, end);
+    }
+
+    private boolean validLocalPart(String s, int start, int end) {
+        if (start == end || end - start > MAX_LOCAL_PART) {
+            return false;
+        }
+
+        if (s.charAt(start) == '"') {
+            if (end - start < 2 || s.charAt(end - 1) != '"') {
+                return false;
+            }
+            for (int i = start + 1; i < end - 1; i++) {
+                char c = s.charAt(i);
+                if (c == '\\' && i + 1 < end - 1) {
+                    i++;
+                }
+                else if (c == '"' || c == '\\' || c < 0x20 || c == 0x7f || (c >= 0x80 && !allowUtf8)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        return validDotAtom(s, start, end);
+    }
+
+    private boolean validDotAtom(String s, int start, int end) {
+        boolean lastDot = true;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '.') {
+                if (lastDot) {
+                    return false;
+                }
+                lastDot = true;
+            }
+            else if (isAtext(c)) {
+                lastDot = false;
+            }
+            else {
+                return false;
+            }
+        }
+        return !lastDot;
+    }
+
+    private boolean validDomain(String s, int start, int end) {
+        if (start == end) {
+            return false;
+        }
+
+        if (s.charAt(start) == '[') {
+            if (s.charAt(end - 1) != ']') {
+                return false;
+            }
+            for (int i = start + 1; i < end - 1; i++) {
+                char c = s.charAt(i);
+                if (c == '[' || c == ']' || c == '\\' || c <= 0x20 || c == 0x7f || (c >= 0x80 && !allowUtf8)) {
+                    return false;
+                }
+            }
+            return end - start > 2;
+        }
+
+        int labelStart = start;
+        for (int i = start; i <= end; i++) {
+            char c = i < end ? s.charAt(i) : '.';
+            if (c == '.') {
+                if (i == labelStart || s.charAt(labelStart) == '-' || s.charAt(i - 1) == '-' || i - labelStart > 63) {
+                    return false;
+                }
+                labelStart = i + 1;
+            }
+            else if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || (c >= 0x80 && allowUtf8))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isAtext(char c) {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || (c >= 0x80 && allowUtf8)) {
+            return true;
+        }
+        return switch (c) {
+            case '!', '#', '$', '%', '&', '\'', '*', '+', '-', '/', '=', '?', '^', '_', '`', '{', '|', '}', '~' -> true;
+            default -> false;
+        };
+    }
+
+    private static int lastUnquoted(String s, int start, int end, char target) {
+        int found = -1;
+        boolean quoted = false;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (quoted && c == '\\') {
+                i++;
+            }
+            else if (c == '"') {
+                quoted = !quoted;
+            }
+            else if (!quoted && c == target) {
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    private static int skipWhitespace(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trimEnd(String s, int start) {
+        return trimEnd(s, start, s.length());
+    }
+
+    private static int trimEnd(String s, int start, int end) {
+        while (end > start && Character.isWhitespace(s.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private InternetAddress fail(String reason) {
+        error = reason;
+        return null;
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import co.cfly.email.api.HtmlPostProcessor;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.DataNode;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
+import org.jsoup.select.Selector;
+
+/**
+ * Moves the rules of an HTML document's {@code <style>} elements into the {@code style} attributes of the elements they
+ * match, as most email clients ignore or strip style sheets.
+ * <p>
+ * Rules are applied in cascade order, by specificity then position, below existing inline styles unless marked
+ * {@code !important}, and below inline styles marked {@code !important} in any case. At-rules such as {@code @media} and rules with selectors that cannot be applied inline, such as
+ * {@code :hover}, are kept in a single remaining {@code <style>} element.
+ * <p>
+ * Parsed style sheets are cached by their text, so messages rendered from the same template share them. For each style
+ * sheet the rules matched by an element are also cached, keyed by a hash of the tags and attributes of the element and
+ * its ancestors, so only elements which differ between recipients have selectors evaluated again. Rules using sibling
+ * combinators or pseudo-classes depend on more than that path and are always evaluated.
+ */
+public class CssInliner implements HtmlPostProcessor {
+
+    private static final int MAX_STYLESHEETS = 64;
+
+    private final int maxCachedElements;
+    private final Map<String, Stylesheet> stylesheets = new LinkedHashMap<>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Stylesheet> eldest) {
+            return size() > MAX_STYLESHEETS;
+        }
+    };
+
+    public CssInliner() {
+        this(10000);
+    }
+
+    /**
+     * @param maxCachedElements maximum number of element paths to remember the matching rules of, per style sheet
+     */
+    public CssInliner(int maxCachedElements) {
+        this.maxCachedElements = maxCachedElements;
+    }
+
+    @Override
+    public String process(String html) {
+        Document document = Jsoup.parse(html);
+        Elements styles = document.select("style");
+        if (styles.isEmpty()) {
+            return html;
+        }
+        document.outputSettings().prettyPrint(false);
+
+        StringBuilder css = new StringBuilder();
+        for (Element style : styles) {
+            css.append(style.data()).append('\n');
+        }
+        Stylesheet stylesheet = stylesheet(css.toString());
+
+        Element root = document.child(0);
+        long rootPath = path(0, root);
+        inline(document, root, rootPath, stylesheet);
+        for (Element child : root.children()) {
+            if (!child.normalName().equals("head")) {
+                inlineTree(document, child, rootPath, stylesheet);
+            }
+        }
+
+        for (int i = 1; i < styles.size(); i++) {
+            styles.get(i).remove();
+        }
+        if (stylesheet.retained.isEmpty()) {
+            styles.get(0).remove();
+        }
+        else {
+            styles.get(0).empty().appendChild(new DataNode(stylesheet.retained));
+        }
+        return document.outerHtml();
+    }
+
+    public int getCachedStylesheets() {
+        synchronized (stylesheets) {
+            return stylesheets.size();
+        }
+    }
+
+    private Stylesheet stylesheet(String css) {
+        synchronized (stylesheets) {
+            Stylesheet stylesheet = stylesheets.get(css);
+            if (stylesheet != null) {
+                return stylesheet;
+            }
+        }
+        // Parse outside the lock, a racing duplicate parse is harmless
+        Stylesheet stylesheet = new Stylesheet(css);
+        synchronized (stylesheets) {
+            stylesheets.put(css, stylesheet);
+        }
+        return stylesheet;
+    }
+
+    private void inlineTree(Document document, Element element, long parentPath, Stylesheet stylesheet) {
+        if (element.normalName().equals("style") || element.normalName().equals("script")) {
+            return;
+        }
+        long path = path(parentPath, element);
+        inline(document, element, path, stylesheet);
+        for (Element child : element.children()) {
+            inlineTree(document, child, path, stylesheet);
+        }
+    }
+
+    private void inline(Document document, Element element, long path, Stylesheet stylesheet) {
+        int[] matched = stylesheet.matches.get(path);
+        if (matched == null) {
+            matched = stylesheet.matchStatic(document, element);
+            if (stylesheet.matches.size() >= maxCachedElements) {
+                stylesheet.matches.clear();
+            }
+            stylesheet.matches.put(path, matched);
+        }
+        int[] dynamic = stylesheet.matchDynamic(document, element);
+        if (matched.length == 0 && dynamic.length == 0) {
+            return;
+        }
+
+        Map<String, String> properties = new LinkedHashMap<>();
+        List<Declaration> important = new ArrayList<>();
+        // Both arrays are in cascade order, merge them so later rules override earlier ones
+        int s = 0;
+        int d = 0;
+        while (s < matched.length || d < dynamic.length) {
+            int index = d >= dynamic.length || (s < matched.length && matched[s] < dynamic[d]) ? matched[s++] : dynamic[d++];
+            for (Declaration declaration : stylesheet.rules.get(index).declarations) {
+                if (declaration.important) {
+                    important.add(declaration);
+                }
+                else {
+                    properties.put(declaration.property, declaration.value);
+                }
+            }
+        }
+        List<Declaration> inlineImportant = new ArrayList<>();
+        for (Declaration declaration : parseDeclarations(element.attr("style"))) {
+            if (declaration.important) {
+                inlineImportant.add(declaration);
+            }
+            else {
+                properties.put(declaration.property, declaration.value);
+            }
+        }
+        for (Declaration declaration : important) {
+            properties.put(declaration.property, declaration.value);
+        }
+        // Inline !important wins over everything and keeps its flag against the retained rules
+        for (Declaration declaration : inlineImportant) {
+            properties.put(declaration.property, declaration.value + " !important");
+        }
+
+        StringBuilder style = new StringBuilder();
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            if (style.length() > 0) {
+                style.append(' ');
+            }
+            style.append(property.getKey()).append(": ").append(property.getValue()).append(';');
+        }
+        element.attr("style", style.toString());
+    }
+
+    /**
+     * Hash of the element's tag and attributes chained onto its parent's, the inputs of a selector without sibling
+     * combinators or pseudo-classes
+     */
+    private static long path(long parentPath, Element element) {
+        long hash = Hashing.hash64(parentPath, element.normalName());
+        for (Attribute attribute : element.attributes()) {
+            if (!attribute.getKey().equals("style")) {
+                hash = Hashing.hash64(Hashing.hash64(hash, attribute.getKey()), attribute.getValue());
+            }
+        }
+        return hash;
+    }
+
+    private static class Stylesheet {
+        private final List<Rule> rules = new ArrayList<>();
+        private final String retained;
+        private final int[] staticRules;
+        private final int[] dynamicRules;
+        private final Map<Long, int[]> matches = new ConcurrentHashMap<>();
+
+        Stylesheet(String css) {
+            StringBuilder kept = new StringBuilder();
+            String source = stripComments(css);
+            int pos = 0;
+            int order = 0;
+            while (pos < source.length()) {
+                int open = source.indexOf('{', pos);
+                int semicolon = source.indexOf(';', pos);
+                String prelude = source.substring(pos, open < 0 ? source.length() : open).trim();
+
+                if (prelude.startsWith("@") && semicolon >= 0 && (open < 0 || semicolon < open)) {
+                    // Statement at-rule, eg @import or @charset
+                    kept.append(source, pos, semicolon + 1).append('\n');
+                    pos = semicolon + 1;
+                    continue;
+                }
+                if (open < 0) {
+                    break;
+                }
+                int close = matchingBrace(source, open);
+                if (prelude.startsWith("@")) {
+                    kept.append(prelude).append(' ').append(source, open, close + 1).append('\n');
+                }
+                else if (!prelude.isEmpty()) {
+                    List<Declaration> declarations = parseDeclarations(source.substring(open + 1, close));
+                    for (String selector : splitSelectors(prelude)) {
+                        Rule rule = Rule.compile(selector, declarations, order++);
+                        if (rule != null) {
+                            rules.add(rule);
+                        }
+                        else {
+                            kept.append(selector).append(' ').append(source, open, close + 1).append('\n');
+                        }
+                    }
+                }
+                pos = close + 1;
+            }
+            retained = kept.toString();
+
+            // Stable sort, so equal specificity keeps document order
+            rules.sort((a, b) -> Long.compare(a.specificity, b.specificity));
+            staticRules = indexes(false);
+            dynamicRules = indexes(true);
+        }
+
+        int[] matchStatic(Document document, Element element) {
+            return match(staticRules, document, element);
+        }
+
+        int[] matchDynamic(Document document, Element element) {
+            return match(dynamicRules, document, element);
+        }
+
+        private int[] match(int[] candidates, Document document, Element element) {
+            int[] matched = new int[candidates.length];
+            int count = 0;
+            for (int index : candidates) {
+                if (rules.get(index).evaluator.matches(document, element)) {
+                    matched[count++] = index;
+                }
+            }
+            return count == matched.length ? matched : Arrays.copyOf(matched, count);
+        }
+
+        private int[] indexes(boolean dynamic) {
+            return IntStream.range(0, rules.size()).filter(i -> rules.get(i).dynamic == dynamic).toArray();
+        }
+
+        private static String stripComments(String css) {
+            StringBuilder sb = new StringBuilder(css.length());
+            int pos = 0;
+            int start;
+            while ((start = css.indexOf("/*", pos)) >= 0) {
+                int end = css.indexOf("*/", start + 2);
+                sb.append(css, pos, start);
+                pos = end < 0 ? css.length() : end + 2;
+            }
+            return sb.append(css, pos, css.length()).toString();
+        }
+
+        private static int matchingBrace(String source, int open) {
+            int depth = 0;
+            for (int i = open; i < source.length(); i++) {
+                char c = source.charAt(i);
+                if (c == '{') {
+                    depth++;
+                }
+                else if (c == '}' && --depth == 0) {
+                    return i;
+                }
+            }
+            return source.length() - 1;
+        }
+
+        private static List<String> splitSelectors(String prelude) {
+            List<String> selectors = new ArrayList<>();
+            int depth = 0;
+            int start = 0;
+            for (int i = 0; i < prelude.length(); i++) {
+                char c = prelude.charAt(i);
+                if (c == '(' || c == '[') {
+                    depth++;
+                }
+                else if (c == ')' || c == ']') {
+                    depth--;
+                }
+                else if (c == ',' && depth == 0) {
+                    selectors.add(prelude.substring(start, i).trim());
+                    start = i + 1;
+                }
+            }
+            selectors.add(prelude.substring(start).trim());
+            return selectors;
+        }
+    }
+
+    private static class Rule {
+        private final Evaluator evaluator;
+        private final List<Declaration> declarations;
+        private final long specificity;
+        private final boolean dynamic;
+
+        private Rule(Evaluator evaluator, List<Declaration> declarations, long specificity, boolean dynamic) {
+            this.evaluator = evaluator;
+            this.declarations = declarations;
+            this.specificity = specificity;
+            this.dynamic = dynamic;
+        }
+
+        /**
+         * Compile a single selector, or return null if it can't be applied inline
+         */
+        static Rule compile(String selector, List<Declaration> declarations, int order) {
+            if (selector.isEmpty() || selector.contains("::")) {
+                return null;
+            }
+            Evaluator evaluator;
+            try {
+                evaluator = QueryParser.parse(selector);
+            }
+            catch (Selector.SelectorParseException | IllegalArgumentException e) {
+                return null;
+            }
+
+            int ids = 0;
+            int classes = 0;
+            int types = 0;
+            // The style attribute is rewritten while inlining and is not part of the cached path
+            boolean dynamic = selector.contains("[style");
+            int i = 0;
+            while (i < selector.length()) {
+                char c = selector.charAt(i);
+                if (c == '[') {
+                    classes++;
+                    i = skipPast(selector, i, ']');
+                    continue;
+                }
+                if (c == '(') {
+                    i = skipPast(selector, i, ')');
+                    continue;
+                }
+                if (c == '#') {
+                    ids++;
+                }
+                else if (c == '.') {
+                    classes++;
+                }
+                else if (c == ':') {
+                    classes++;
+                    dynamic = true;
+                }
+                else if (c == '+' || c == '~') {
+                    dynamic = true;
+                }
+                else if (Character.isLetter(c) && (i == 0 || " >+~(".indexOf(selector.charAt(i - 1)) >= 0)) {
+                    types++;
+                }
+                if (c == '#' || c == '.' || c == ':' || Character.isLetter(c)) {
+                    // Skip the rest of the name
+                    i++;
+                    while (i < selector.length() && (Character.isLetterOrDigit(selector.charAt(i)) || selector.charAt(i) == '-' || selector.charAt(i) == '_')) {
+                        i++;
+                    }
+                    continue;
+                }
+                i++;
+            }
+            // Order is folded in below specificity so sorting by it gives the cascade order
+            return new Rule(evaluator, declarations, (((long) ids * 256 + classes) * 256 + types) * 65536 + Math.min(order, 65535), dynamic);
+        }
+
+        private static int skipPast(String selector, int from, char end) {
+            int close = selector.indexOf(end, from);
+            return close < 0 ? selector.length() : close + 1;
+        }
+    }
+
+    private static class Declaration {
+        private final String property;
+        private final String value;
+        private final boolean important;
+
+        Declaration(String property, String value, boolean important) {
+            this.property = property;
+            this.value = value;
+            this.important = important;
+        }
+    }
+
+    private static List<Declaration> parseDeclarations(String block) {
+        List<Declaration> declarations = new ArrayList<>();
+        int depth = 0;
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i <= block.length(); i++) {
+            char c = i < block.length() ? block.charAt(i) : ';';
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+                continue;
+            }
+            if (c == '"' || c == '\'') {
+                quote = c;
+            }
+            else if (c == '(') {
+                depth++;
+            }
+            else if (c == ')') {
+                depth--;
+            }
+            else if (c == ';' && depth <= 0) {
+                addDeclaration(declarations, block.substring(start, Math.min(i, block.length())));
+                start = i + 1;
+            }
+        }
+        return declarations;
+    }
+
+    private static void addDeclaration(List<Declaration> declarations, String text) {
+        int colon = text.indexOf(':');
+        if (colon <= 0) {
+            return;
+        }
+        String property = text.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+        String value = text.substring(colon + 1).trim();
+        boolean important = false;
+        int bang = value.lastIndexOf('!');
+        if (bang >= 0 && value.substring(bang + 1).trim().equalsIgnoreCase("important")) {
+            important = true;
+            value = value.substring(0, bang).trim();
+        }
+        if (!property.isEmpty() && !value.isEmpty()) {
+            declarations.add(new Declaration(property, value, important));
+        }
+    }
+}
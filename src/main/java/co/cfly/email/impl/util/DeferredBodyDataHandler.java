@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl.util;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import co.cfly.email.api.DeferredBody;
+import jakarta.activation.DataHandler;
+import jakarta.activation.DataSource;
+
+/**
+ * {@link DataHandler} which renders a {@link DeferredBody} straight into the MIME output stream as jakarta.mail writes the
+ * message, so the body never exists as a single String. The part must carry an explicit Content-Transfer-Encoding,
+ * otherwise jakarta.mail renders the body once more to choose one.
+ */
+public class DeferredBodyDataHandler extends DataHandler {
+
+    private final DeferredBody body;
+    private final Charset charset;
+
+    public DeferredBodyDataHandler(DeferredBody body, String mimeType, String charset) {
+        this(body, mimeType + "; charset=" + charset, Charset.forName(charset));
+    }
+
+    private DeferredBodyDataHandler(DeferredBody body, String contentType, Charset charset) {
+        super(new RenderingDataSource(body, contentType, charset));
+        this.body = body;
+        this.charset = charset;
+    }
+
+    @Override
+    public void writeTo(OutputStream os) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os, charset), 8192);
+        body.writeTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * Only used when the content is read back rather than written, renders into memory
+     */
+    private static class RenderingDataSource implements DataSource {
+
+        private final DeferredBody body;
+        private final String contentType;
+        private final Charset charset;
+
+        RenderingDataSource(DeferredBody body, String contentType, Charset charset) {
+            this.body = body;
+            this.contentType = contentType;
+            this.charset = charset;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            Writer writer = new OutputStreamWriter(bytes, charset);
+            body.writeTo(writer);
+            writer.flush();
+            return new ByteArrayInputStream(bytes.toByteArray());
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("Deferred body is read only");
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public String getName() {
+            return "deferredBody";
+        }
+    }
+}
@@ -1,64 +1,269 @@
 package co.cfly.email.impl.util;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
+import org.jsoup.internal.StringUtil;
 import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.StreamParser;
 import org.jsoup.select.NodeTraversor;
 import org.jsoup.select.NodeVisitor;
 
+/**
+ * Converts HTML to formatted plain text. The HTML is read with jsoup's {@link StreamParser} and each element is formatted
+ * and discarded as soon as it is closed, so memory use is bounded by the open elements rather than the document size.
+ * <p>
+ * The static methods use the default format. Configured instances may be shared once set up.
+ */
 public class HtmlToPlainText {
 
+    /**
+     * How the target of a link is written after the link text
+     */
+    public enum LinkStyle {
+        /**
+         * {@code text ( https://example.com )}
+         */
+        PARENTHESES(" ( ", " )"),
+        /**
+         * {@code text <https://example.com>}
+         */
+        ANGLE_BRACKETS(" <", ">"),
+        /**
+         * Only the link text
+         */
+        NONE("", "");
+
+        private final String prefix;
+        private final String suffix;
+
+        LinkStyle(String prefix, String suffix) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+    }
+
+    public static final int DEFAULT_WRAP_WIDTH = 200;
+
+    private static final HtmlToPlainText DEFAULT = new HtmlToPlainText();
+
+    private int wrapWidth = DEFAULT_WRAP_WIDTH;
+    private LinkStyle linkStyle = LinkStyle.PARENTHESES;
+
     public static String convert(String html) {
-        Document doc = Jsoup.parse(html);
-        HtmlToPlainText formatter = new HtmlToPlainText();
-        return formatter.getPlainText(doc);
+        return DEFAULT.toPlainText(html);
+    }
+
+    /**
+     * Convert HTML to plain text, writing the text as the HTML is read
+     */
+    public static void convert(Reader html, Writer out) throws IOException {
+        DEFAULT.toPlainText(html, out);
+    }
+
+    public String toPlainText(String html) {
+        StringBuilder sb = new StringBuilder(html.length() / 2);
+        try {
+            format(new StringReader(html), sb);
+        }
+        catch (IOException e) {
+            // Neither StringReader nor StringBuilder throw
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    public void toPlainText(Reader html, Writer out) throws IOException {
+        format(html, out);
+    }
+
+    /**
+     * Set the column at which lines are wrapped, {@value #DEFAULT_WRAP_WIDTH} by default
+     */
+    public void setWrapWidth(int wrapWidth) {
+        if (wrapWidth < 1) {
+            throw new IllegalArgumentException("wrapWidth must be positive");
+        }
+        this.wrapWidth = wrapWidth;
+    }
+
+    public void setLinkStyle(LinkStyle linkStyle) {
+        this.linkStyle = Objects.requireNonNull(linkStyle);
+    }
+
+    private void format(Reader html, Appendable out) throws IOException {
+        StreamingFormatter formatter = new StreamingFormatter(new FormattingVisitor(out, wrapWidth, linkStyle));
+        try (StreamParser parser = new StreamParser(Parser.htmlParser()).parse(html, "")) {
+            Iterator<Element> elements = parser.iterator();
+            while (elements.hasNext()) {
+                formatter.closed(elements.next());
+            }
+            formatter.finish();
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     /**
-     * Format an Element to plain-text
-     *
-     * @param element the root element to format
-     * @return formatted text
+     * Feeds elements to the {@link FormattingVisitor} in document order as the parser closes them. An element's head is
+     * visited when its first child element closes, or when it closes itself, along with any text preceding that child.
      */
-    private String getPlainText(Element element) {
-        FormattingVisitor formatter = new FormattingVisitor();
-        NodeTraversor.traverse(formatter, element); // walk the DOM, and call .head() and .tail() for each node
-        return formatter.toString();
+    private static class StreamingFormatter {
+        private final FormattingVisitor visitor;
+        // Elements whose head has been visited but not yet their tail, outermost first
+        private final Deque<Element> open = new ArrayDeque<>();
+
+        StreamingFormatter(FormattingVisitor visitor) {
+            this.visitor = visitor;
+        }
+
+        void closed(Element element) throws IOException {
+            // Anything still open which isn't an ancestor was moved by the parser, finish it now
+            while (!open.isEmpty() && !isSelfOrAncestor(open.peekLast(), element)) {
+                close(open.pollLast());
+            }
+
+            if (!element.equals(open.peekLast())) {
+                List<Element> pending = new ArrayList<>();
+                for (Element e = element; e != null && !e.equals(open.peekLast()); e = e.parent()) {
+                    pending.add(e);
+                }
+                if (!open.isEmpty()) {
+                    visitChildren(open.peekLast(), pending.get(pending.size() - 1));
+                }
+                for (int i = pending.size() - 1; i >= 0; i--) {
+                    Element e = pending.get(i);
+                    visitor.head(e, open.size());
+                    open.addLast(e);
+                    if (i > 0) {
+                        visitChildren(e, pending.get(i - 1));
+                    }
+                }
+            }
+
+            close(open.pollLast());
+            element.remove();
+        }
+
+        void finish() throws IOException {
+            while (!open.isEmpty()) {
+                close(open.pollLast());
+            }
+            visitor.flush();
+        }
+
+        private void close(Element element) throws IOException {
+            visitChildren(element, null);
+            visitor.tail(element, open.size());
+        }
+
+        /**
+         * Visit and remove the children of an element up to the given child, or all of them
+         */
+        private void visitChildren(Element parent, Node until) throws IOException {
+            while (parent.childNodeSize() > 0) {
+                Node child = parent.childNode(0);
+                if (child.equals(until)) {
+                    return;
+                }
+                if (child instanceof Element) {
+                    NodeTraversor.traverse(visitor, child);
+                }
+                else {
+                    visitor.head(child, open.size());
+                    visitor.tail(child, open.size());
+                }
+                child.remove();
+            }
+            visitor.flush();
+        }
+
+        private static boolean isSelfOrAncestor(Element candidate, Element element) {
+            for (Element e = element; e != null; e = e.parent()) {
+                if (e.equals(candidate)) {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 
     // the formatting rules, implemented in a breadth-first DOM traverse
     private static class FormattingVisitor implements NodeVisitor {
-        private static final int maxWidth = 200;
+        private static final int HEAD_NEWLINE = 1;
+        private static final int TAIL_NEWLINE = 1 << 1;
+        private static final int LIST_ITEM = 1 << 2;
+        private static final int TERM = 1 << 3;
+        private static final int LINK = 1 << 4;
+
+        private final int maxWidth;
+        private final LinkStyle linkStyle;
+        private final Appendable out; // receives the formatted text
+        private final StringBuilder scratch = new StringBuilder(); // reused for normalized text and links
         private int width = 0;
-        private StringBuilder accum = new StringBuilder(); // holds the accumulated text
+        private boolean empty = true; // nothing has been written yet
+        private char lastChar; // the last character written
+        private IOException failure;
+
+        FormattingVisitor(Appendable out, int maxWidth, LinkStyle linkStyle) {
+            this.out = out;
+            this.maxWidth = maxWidth;
+            this.linkStyle = linkStyle;
+        }
+
+        private static int classify(String name) {
+            return switch (name) {
+                case "p", "h1", "h2", "h3", "h4", "h5" -> HEAD_NEWLINE | TAIL_NEWLINE;
+                case "tr" -> HEAD_NEWLINE;
+                case "br", "dd", "div" -> TAIL_NEWLINE;
+                case "dt" -> TERM | TAIL_NEWLINE;
+                case "li" -> LIST_ITEM;
+                case "a" -> LINK;
+                default -> 0;
+            };
+        }
 
         // hit when the node is first seen
         @Override
         public void head(Node node, int depth) {
-            String name = node.nodeName();
             if (node instanceof TextNode textNode) {
-                if (Objects.requireNonNull(textNode.parent()).nodeName().equals("title")) {
+                String parent = Objects.requireNonNull(textNode.parentNode()).nodeName();
+                if (parent.equals("title")) {
                     //skip title;
                     return;
                 }
-                if (Objects.requireNonNull(textNode.parentNode()).nodeName().equals("p")) {
+                if (parent.equals("p")) {
                     append(textNode.getWholeText()); // TextNodes carry all user-readable text in the DOM.
                 }
                 else {
-                    append(textNode.text()); // TextNodes carry all user-readable text in the DOM.
+                    scratch.setLength(0);
+                    StringUtil.appendNormalisedWhitespace(scratch, textNode.getWholeText(), false);
+                    append(scratch);
                 }
+                return;
             }
-            else if (name.equals("li")) {
+
+            int type = classify(node.nodeName());
+            if ((type & LIST_ITEM) != 0) {
                 append("\n * ");
             }
-            else if (name.equals("dt")) {
+            else if ((type & TERM) != 0) {
                 append("  ");
             }
-            else if (in(name, "p", "h1", "h2", "h3", "h4", "h5", "tr")) {
+            else if ((type & HEAD_NEWLINE) != 0) {
                 append("\n");
             }
         }
@@ -66,69 +271,108 @@ public class HtmlToPlainText {
         // hit when all the node's children (if any) have been visited
         @Override
         public void tail(Node node, int depth) {
-            String name = node.nodeName();
-            if (in(name, "br", "dd", "dt", "p", "h1", "h2", "h3", "h4", "h5", "div")) {
+            if (node instanceof TextNode) {
+                return;
+            }
+            int type = classify(node.nodeName());
+            if ((type & TAIL_NEWLINE) != 0) {
                 append("\n");
             }
-            else if (name.equals("a")) {
-                append(String.format(" ( %s )", node.absUrl("href")));
+            else if ((type & LINK) != 0 && linkStyle != LinkStyle.NONE) {
+                scratch.setLength(0);
+                scratch.append(linkStyle.prefix).append(node.absUrl("href")).append(linkStyle.suffix);
+                append(scratch);
             }
         }
 
-        // appends text to the string builder with a simple word wrap method
-        private void append(String text) {
-            if (accum.isEmpty() && isNullOrBlank(text)) {
+        /**
+         * Rethrow any failure of the output, which the {@link NodeVisitor} methods can't throw themselves
+         */
+        void flush() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        // appends text to the output with a simple word wrap method
+        private void append(CharSequence text) {
+            if (empty && isBlank(text)) {
                 return;
             }
 
-            if (text.startsWith("\n")) {
+            if (text.length() > 0 && text.charAt(0) == '\n') {
                 width = 0; // reset counter if starts with a newline. only from formats above, not in natural text
             }
-            if (text.equals(" ") && (accum.isEmpty() || in(accum.substring(accum.length() - 1), " ", "\n"))) {
+            if (text.length() == 1 && text.charAt(0) == ' ' && (empty || lastChar == ' ' || lastChar == '\n')) {
                 return; // don't accumulate long runs of empty spaces
             }
 
             if (text.length() + width > maxWidth) { // won't fit, needs to wrap
-                String[] words = text.split("\\s+", -1);
-                for (int i = 0; i < words.length; i++) {
-                    String word = words[i];
-                    boolean last = i == words.length - 1;
-                    if (!last) // insert a space if not the last word
-                    {
-                        word = word + " ";
-                    }
-                    if (word.length() + width > maxWidth) { // wrap and reset counter
-                        accum.append("\n").append(word);
-                        width = word.length();
+                // Words are separated by runs of whitespace, each but the last keeps a single trailing space
+                int start = 0;
+                int i = 0;
+                while (i < text.length()) {
+                    if (isWhitespace(text.charAt(i))) {
+                        int end = i;
+                        while (i < text.length() && isWhitespace(text.charAt(i))) {
+                            i++;
+                        }
+                        appendWord(text, start, end, true);
+                        start = i;
                     }
                     else {
-                        accum.append(word);
-                        width += word.length();
+                        i++;
                     }
                 }
+                appendWord(text, start, text.length(), false);
             }
             else { // fits as is, without need to wrap text
-                accum.append(text);
+                write(text, 0, text.length());
                 width += text.length();
             }
         }
 
-        @Override
-        public String toString() {
-            return accum.toString();
+        private void appendWord(CharSequence text, int start, int end, boolean space) {
+            int length = end - start + (space ? 1 : 0);
+            if (length + width > maxWidth) { // wrap and reset counter
+                write("\n", 0, 1);
+                width = length;
+            }
+            else {
+                width += length;
+            }
+            write(text, start, end);
+            if (space) {
+                write(" ", 0, 1);
+            }
         }
-    }
 
-    private static boolean in(final String needle, final String... haystack) {
-        for (String s : haystack) {
-            if (s.equals(needle)) {
-                return true;
+        private void write(CharSequence text, int start, int end) {
+            if (start == end || failure != null) {
+                return;
             }
+            try {
+                out.append(text, start, end);
+            }
+            catch (IOException e) {
+                failure = e;
+            }
+            empty = false;
+            lastChar = text.charAt(end - 1);
         }
-        return false;
-    }
 
-    private static boolean isNullOrBlank(String string) {
-        return string == null || string.trim().isEmpty();
+        // the characters matched by \s in a regular expression
+        private static boolean isWhitespace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+        }
+
+        private static boolean isBlank(CharSequence text) {
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) > ' ') {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 }
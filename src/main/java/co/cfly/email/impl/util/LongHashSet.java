@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl.util;
+
+/**
+ * Open addressing set of primitive longs using linear probing, 8 bytes per slot with no boxing. Not thread safe, callers
+ * must provide their own locking. Lookups are bounded by the table size, so a racy optimistic read always terminates.
+ */
+public class LongHashSet {
+
+    private static final long EMPTY = 0L;
+    private static final long ZERO_SUBSTITUTE = 0x9e3779b97f4a7c15L;
+
+    private long[] table;
+    private int size;
+
+    public LongHashSet(int expectedSize) {
+        table = new long[tableSizeFor(expectedSize)];
+    }
+
+    /**
+     * @return true if the value was not already present
+     */
+    public boolean add(long value) {
+        long key = key(value);
+        if ((size + 1) * 2L > table.length) {
+            resize(table.length * 2);
+        }
+
+        long[] t = table;
+        int mask = t.length - 1;
+        int i = index(key, mask);
+        while (t[i] != EMPTY) {
+            if (t[i] == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        t[i] = key;
+        size++;
+        return true;
+    }
+
+    public boolean contains(long value) {
+        long key = key(value);
+        long[] t = table;
+        int mask = t.length - 1;
+        int i = index(key, mask);
+        for (int probes = 0; probes < t.length; probes++) {
+            long slot = t[i];
+            if (slot == key) {
+                return true;
+            }
+            if (slot == EMPTY) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the value was present
+     */
+    public boolean remove(long value) {
+        long key = key(value);
+        long[] t = table;
+        int mask = t.length - 1;
+        int i = index(key, mask);
+        while (t[i] != key) {
+            if (t[i] == EMPTY) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+
+        // Backward shift deletion keeps probe sequences intact without tombstones
+        int gap = i;
+        int j = (i + 1) & mask;
+        while (t[j] != EMPTY) {
+            int home = index(t[j], mask);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                t[gap] = t[j];
+                gap = j;
+            }
+            j = (j + 1) & mask;
+        }
+        t[gap] = EMPTY;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        table = new long[table.length];
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        long[] old = table;
+        long[] t = new long[capacity];
+        int mask = capacity - 1;
+        for (long key : old) {
+            if (key != EMPTY) {
+                int i = index(key, mask);
+                while (t[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                t[i] = key;
+            }
+        }
+        table = t;
+    }
+
+    private static long key(long value) {
+        return value == EMPTY ? ZERO_SUBSTITUTE : value;
+    }
+
+    private static int index(long key, int mask) {
+        return (int) Hashing.mix(key) & mask;
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2L && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -20,10 +20,15 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import co.cfly.email.api.AddressResult;
 import co.cfly.email.api.EmailContact;
 import co.cfly.email.api.EmailMessage;
 import co.cfly.email.api.EmailMessageType;
@@ -36,6 +41,7 @@ import co.cfly.email.api.SessionConfig;
 import co.cfly.email.impl.BaseMailMessage;
 import co.cfly.email.impl.MailSessionAuthenticator;
 import co.cfly.email.impl.RootMimeMessage;
+import co.cfly.email.impl.dkim.DkimSigner;
 import jakarta.mail.Address;
 import jakarta.mail.MessagingException;
 import jakarta.mail.Part;
@@ -49,9 +55,62 @@ import jakarta.mail.internet.ParseException;
 public class MailUtility {
 
     public static final String DOMAIN_PROPERTY_KEY = "co.cfly.email.domainName";
+    public static final String SEND_TIMEOUT_PROPERTY_KEY = "co.cfly.email.sendTimeout";
     public static final Pattern CHARSET_EXTRACT = Pattern.compile("charset\\s*=\\s*\"?([^\";]*)\"?", Pattern.CASE_INSENSITIVE);
 
+    private static volatile AddressCache addressCache;
+    private static volatile TextAlternativeCache textAlternativeCache;
+
+    /**
+     * Cache up to maxEntries parsed addresses so that repeated sends to the same recipients skip parsing and validation.
+     */
+    public static void enableAddressCache(int maxEntries) {
+        addressCache = new AddressCache(maxEntries);
+    }
+
+    public static void disableAddressCache() {
+        addressCache = null;
+    }
+
+    /**
+     * Cache generated text alternatives, up to maxWeight characters of HTML and text, so that messages sharing an HTML
+     * body convert it once.
+     */
+    public static void enableTextAlternativeCache(long maxWeight) {
+        textAlternativeCache = new TextAlternativeCache(maxWeight);
+    }
+
+    public static void disableTextAlternativeCache() {
+        textAlternativeCache = null;
+    }
+
+    /**
+     * Get the text alternative cache for its statistics, or null if it is not enabled
+     */
+    public static TextAlternativeCache getTextAlternativeCache() {
+        return textAlternativeCache;
+    }
+
+    /**
+     * Convert an HTML body to its plain text alternative
+     */
+    public static String textAlternative(String html) {
+        TextAlternativeCache cache = textAlternativeCache;
+        if (cache == null) {
+            return HtmlToPlainText.convert(html);
+        }
+        return cache.get(html, HtmlToPlainText::convert);
+    }
+
     public static InternetAddress internetAddress(String address) throws InvalidAddressException {
+        AddressCache cache = addressCache;
+        if (cache == null || address == null) {
+            return MailUtility.parseAddress(address);
+        }
+        return cache.get(address, MailUtility::parseAddress);
+    }
+
+    private static InternetAddress parseAddress(String address) throws InvalidAddressException {
         try {
             return new InternetAddress(address, true);
         }
@@ -60,6 +119,36 @@ public class MailUtility {
         }
     }
 
+    /**
+     * Validate an address eg "a@b.com" or "Name<a@b.com>" without throwing on invalid input
+     */
+    public static AddressResult validateAddress(String address) {
+        return validateAddress(new AddressParser(), address);
+    }
+
+    /**
+     * Validate an address with the given parser, so one parser can be reused across many addresses on a thread
+     */
+    public static AddressResult validateAddress(AddressParser parser, String address) {
+        InternetAddress internetAddress = parser.parse(address);
+        return internetAddress != null ? AddressResult.valid(internetAddress) : AddressResult.invalid(parser.getError());
+    }
+
+    /**
+     * Validate a bare address with a separate display name without throwing on invalid input
+     */
+    public static AddressResult validateAddress(String address, String name) {
+        return validateAddress(new AddressParser(), address, name);
+    }
+
+    /**
+     * Validate a bare address and display name with the given parser, so one parser can be reused across many addresses
+     */
+    public static AddressResult validateAddress(AddressParser parser, String address, String name) {
+        InternetAddress internetAddress = parser.parse(address, name);
+        return internetAddress != null ? AddressResult.valid(internetAddress) : AddressResult.invalid(parser.getError());
+    }
+
     public static Collection<InternetAddress> internetAddress(String... addresses) throws InvalidAddressException {
         ArrayList<InternetAddress> result = new ArrayList<>();
 
@@ -70,6 +159,15 @@ public class MailUtility {
     }
 
     public static InternetAddress internetAddress(String address, String name) throws InvalidAddressException {
+        AddressCache cache = addressCache;
+        if (cache == null || address == null || name == null) {
+            return MailUtility.parseAddress(address, name);
+        }
+        // NUL cannot appear in a valid address so the key is unambiguous
+        return cache.get(name + '\0' + address, key -> MailUtility.parseAddress(address, name));
+    }
+
+    private static InternetAddress parseAddress(String address, String name) throws InvalidAddressException {
         InternetAddress internetAddress;
         try {
             internetAddress = new InternetAddress(address);
@@ -99,7 +197,14 @@ public class MailUtility {
     }
 
     public static InternetAddress[] getInternetAddressses(Collection<InternetAddress> recipients) {
-        return recipients.stream().filter(Objects::nonNull).toArray(InternetAddress[]::new);
+        InternetAddress[] result = new InternetAddress[recipients.size()];
+        int count = 0;
+        for (InternetAddress recipient : recipients) {
+            if (recipient != null) {
+                result[count++] = recipient;
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
     }
 
     public static String getHostName() {
@@ -163,6 +268,28 @@ public class MailUtility {
             props.put(MailUtility.DOMAIN_PROPERTY_KEY, mailConfig.getDomainName());
         }
 
+        if (mailConfig.getConnectTimeout() != null) {
+            props.setProperty("mail.smtp.connectiontimeout", mailConfig.getConnectTimeout().toString());
+        }
+
+        if (mailConfig.getReadTimeout() != null) {
+            props.setProperty("mail.smtp.timeout", mailConfig.getReadTimeout().toString());
+        }
+
+        if (mailConfig.getWriteTimeout() != null) {
+            props.setProperty("mail.smtp.writetimeout", mailConfig.getWriteTimeout().toString());
+        }
+
+        if (mailConfig.getSendTimeout() != null) {
+            props.setProperty(MailUtility.SEND_TIMEOUT_PROPERTY_KEY, mailConfig.getSendTimeout().toString());
+        }
+
+        if (!Strings.isNullOrBlank(mailConfig.getDkimDomain()) && !Strings.isNullOrBlank(mailConfig.getDkimSelector()) && !Strings.isNullOrBlank(mailConfig.getDkimPrivateKey())) {
+            props.setProperty(DkimSigner.DOMAIN_PROPERTY_KEY, mailConfig.getDkimDomain());
+            props.setProperty(DkimSigner.SELECTOR_PROPERTY_KEY, mailConfig.getDkimSelector());
+            props.setProperty(DkimSigner.PRIVATE_KEY_PROPERTY_KEY, mailConfig.getDkimPrivateKey());
+        }
+
         if (mailConfig.getUsername() != null && !mailConfig.getUsername().isEmpty() && mailConfig.getPassword() != null && !mailConfig.getPassword().isEmpty()) {
             MailSessionAuthenticator authenticator = new MailSessionAuthenticator(mailConfig.getUsername(), mailConfig.getPassword());
 
@@ -215,7 +342,13 @@ public class MailUtility {
 
         if (e.getType() == EmailMessageType.STANDARD) {
 
-            if (e.getHtmlBody() != null && e.getTextBody() != null) {
+            if (e.getDeferredHtmlBody() != null && e.getTextBody() != null) {
+                b.setHTMLTextAlt(e.getDeferredHtmlBody(), e.getTextBody());
+            }
+            else if (e.getDeferredHtmlBody() != null) {
+                b.setHTML(e.getDeferredHtmlBody());
+            }
+            else if (e.getHtmlBody() != null && e.getTextBody() != null) {
                 b.setHTMLTextAlt(e.getHtmlBody(), e.getTextBody());
             }
             else if (e.getTextBody() != null) {
@@ -240,7 +373,9 @@ public class MailUtility {
             throw new SendFailedException("Unsupported Message Type: " + e.getType());
         }
 
-        return b.getFinalizedMessage();
+        RootMimeMessage msg = b.getFinalizedMessage();
+        msg.setDkimSigner(DkimSigner.forSession(session));
+        return msg;
     }
 
     public static String nullSafeAddress(InternetAddress value) {
@@ -249,18 +384,55 @@ public class MailUtility {
 
     public static void send(EmailMessage e, Session session) throws SendFailedException {
         RootMimeMessage msg = MailUtility.createMimeMessage(e, session);
+        MailUtility.transport(msg, session);
+
         try {
-            Transport.send(msg);
+            e.setMessageId(MailUtility.headerStripper(msg.getMessageID()));
         }
         catch (MessagingException e1) {
-            throw new SendFailedException("Send Failed", e1);
+            // The relay has already accepted the message, reporting a failure here would invite a duplicate retry
+            e.setMessageId(MailUtility.headerStripper(msg.getMessageId()));
         }
+    }
+
+    /**
+     * Hands the message to the {@link Transport}. When a send deadline is configured on the session the transfer runs on a
+     * virtual thread which is interrupted once the deadline passes; socket I/O on a virtual thread is interruptible, so this
+     * closes the connection and reclaims the thread even when the relay has stopped responding.
+     */
+    private static void transport(RootMimeMessage msg, Session session) throws SendFailedException {
+        String sendTimeout = session.getProperty(MailUtility.SEND_TIMEOUT_PROPERTY_KEY);
+
+        if (Strings.isNullOrBlank(sendTimeout)) {
+            try {
+                Transport.send(msg);
+            }
+            catch (MessagingException e) {
+                throw new SendFailedException("Send Failed", e);
+            }
+            return;
+        }
+
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            Transport.send(msg);
+            return null;
+        });
+        Thread.ofVirtual().name("simple-email-send").start(task);
 
         try {
-            e.setMessageId(MailUtility.headerStripper(msg.getMessageID()));
+            task.get(Long.parseLong(sendTimeout), TimeUnit.MILLISECONDS);
         }
-        catch (MessagingException e1) {
-            throw new SendFailedException("Unable to read Message-ID from sent message");
+        catch (TimeoutException e) {
+            task.cancel(true);
+            throw new SendFailedException("Send exceeded deadline of " + sendTimeout + "ms", e);
+        }
+        catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SendFailedException("Interrupted while sending", e);
+        }
+        catch (ExecutionException e) {
+            throw new SendFailedException("Send Failed", e.getCause());
         }
     }
 
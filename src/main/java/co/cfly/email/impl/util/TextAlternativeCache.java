@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl.util;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Bounded LRU cache of plain text alternatives keyed by a 64 bit hash of the HTML body, so a campaign sending the same
+ * HTML to many recipients converts it once. The HTML is kept alongside its text and compared on a hit, a hash collision
+ * is only a miss. The cache is a {@link WeightedLruCache} weighted by the characters of both.
+ */
+public class TextAlternativeCache {
+
+    private final WeightedLruCache<Long, Entry> cache;
+    private final ToLongFunction<String> hashFunction;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxWeight maximum number of HTML and text characters to keep cached
+     */
+    public TextAlternativeCache(long maxWeight) {
+        this(maxWeight, Hashing::hash64);
+    }
+
+    /**
+     * @param hashFunction 64 bit hash of the HTML used as the cache key
+     */
+    public TextAlternativeCache(long maxWeight, ToLongFunction<String> hashFunction) {
+        this.cache = new WeightedLruCache<>(maxWeight, Entry::weight);
+        this.hashFunction = hashFunction;
+    }
+
+    public String get(String html, Function<String, String> converter) {
+        long hash = hashFunction.applyAsLong(html);
+
+        Entry cached = cache.get(hash);
+        if (cached != null && cached.html.equals(html)) {
+            hits.increment();
+            return cached.text;
+        }
+
+        misses.increment();
+        // Convert outside the lock, a racing duplicate conversion is harmless
+        String text = converter.apply(html);
+        cache.put(hash, new Entry(html, text));
+        return text;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the total number of HTML and text characters currently cached
+     */
+    public long getWeight() {
+        return cache.getWeight();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    private record Entry(String html, String text) {
+        long weight() {
+            return (long) html.length() + text.length();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl.util;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timer wheel with 64 slots per level. Scheduling is O(1) and each entry is moved at most once per level
+ * on its way down to expiry. Entries further out than the top level are held in an overflow list which is redistributed
+ * each time the top level wraps. Not thread safe.
+ */
+public class TimerWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private final long tickMillis;
+    private final int levels;
+    private final ArrayDeque<Entry<T>>[][] wheel;
+    private final ArrayDeque<Entry<T>> overflow = new ArrayDeque<>();
+    private final ArrayDeque<Entry<T>> due = new ArrayDeque<>();
+    private long currentTick;
+    private int size;
+
+    public TimerWheel(long tickMillis, int levels, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.levels = levels;
+        this.currentTick = startMillis / tickMillis;
+        this.wheel = newWheel(levels);
+        for (int level = 0; level < levels; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                wheel[level][slot] = new ArrayDeque<>();
+            }
+        }
+    }
+
+    /**
+     * Generic arrays can only be created raw, every slot is filled with a typed deque before the wheel is used
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static <T> ArrayDeque<Entry<T>>[][] newWheel(int levels) {
+        return new ArrayDeque[levels][SLOTS];
+    }
+
+    public void schedule(long dueMillis, T item) {
+        place(new Entry<>(Math.ceilDiv(dueMillis, tickMillis), item));
+        size++;
+    }
+
+    /**
+     * Advance the wheel to the given time, passing every entry which has become due to the consumer in due order
+     */
+    public void advance(long nowMillis, Consumer<T> expired) {
+        long targetTick = nowMillis / tickMillis;
+
+        drain(due, expired);
+        while (currentTick < targetTick) {
+            currentTick++;
+
+            if ((currentTick & mask(levels)) == 0) {
+                cascade(overflow);
+            }
+            for (int level = levels - 1; level > 0; level--) {
+                if ((currentTick & mask(level)) == 0) {
+                    cascade(wheel[level][slot(currentTick, level)]);
+                }
+            }
+
+            drain(wheel[0][slot(currentTick, 0)], expired);
+            drain(due, expired);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void place(Entry<T> entry) {
+        if (entry.tick <= currentTick) {
+            due.add(entry);
+            return;
+        }
+
+        // The entry goes in the highest level at which its tick differs from the current tick, so that it cascades down
+        // when the wheel reaches the start of its slot
+        for (int level = levels - 1; level >= 0; level--) {
+            if ((entry.tick >>> (SLOT_BITS * level)) != (currentTick >>> (SLOT_BITS * level))) {
+                if ((entry.tick >>> (SLOT_BITS * (level + 1))) != (currentTick >>> (SLOT_BITS * (level + 1)))) {
+                    overflow.add(entry);
+                }
+                else {
+                    wheel[level][slot(entry.tick, level)].add(entry);
+                }
+                return;
+            }
+        }
+    }
+
+    private void cascade(ArrayDeque<Entry<T>> slot) {
+        for (int i = slot.size(); i > 0; i--) {
+            place(slot.poll());
+        }
+    }
+
+    private void drain(ArrayDeque<Entry<T>> slot, Consumer<T> expired) {
+        Entry<T> entry;
+        while ((entry = slot.poll()) != null) {
+            size--;
+            expired.accept(entry.item);
+        }
+    }
+
+    private static int slot(long tick, int level) {
+        return (int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+    }
+
+    private static long mask(int level) {
+        return (1L << (SLOT_BITS * level)) - 1;
+    }
+
+    private static class Entry<T> {
+
+        private final long tick;
+        private final T item;
+
+        Entry(long tick, T item) {
+            this.tick = tick;
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.impl.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Least recently used cache bounded by the total weight of its values rather than their number. It is split into
+ * independently locked stripes chosen by the key's hash code, each holding an equal share of the maximum weight, and a
+ * value heavier than one share is not cached. Computing missing values is left to the caller, outside any lock.
+ */
+public class WeightedLruCache<K, V> {
+
+    private static final int STRIPES = 16;
+
+    private final List<Stripe<K, V>> stripes;
+
+    /**
+     * @param maxWeight maximum total weight of the cached values
+     * @param weigher   weight of a value, eg its number of characters
+     */
+    public WeightedLruCache(long maxWeight, ToLongFunction<V> weigher) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight must be positive");
+        }
+        long perStripe = Math.max(1, maxWeight / STRIPES);
+        List<Stripe<K, V>> list = new ArrayList<>(STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            list.add(new Stripe<>(perStripe, weigher));
+        }
+        this.stripes = List.copyOf(list);
+    }
+
+    /**
+     * @return the cached value, marked as most recently used, or null
+     */
+    public V get(K key) {
+        Stripe<K, V> stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    /**
+     * Cache the value, evicting the least recently used values of its stripe until the stripe is within its weight
+     */
+    public void put(K key, V value) {
+        Stripe<K, V> stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.add(key, value);
+        }
+    }
+
+    /**
+     * Get the total weight of the values currently cached
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                weight += stripe.weight;
+            }
+        }
+        return weight;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private Stripe<K, V> stripe(K key) {
+        return stripes.get(key.hashCode() & (STRIPES - 1));
+    }
+
+    private static class Stripe<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long maxWeight;
+        private final transient ToLongFunction<V> weigher;
+        private long weight;
+
+        Stripe(long maxWeight, ToLongFunction<V> weigher) {
+            super(16, 0.75f, true);
+            this.maxWeight = maxWeight;
+            this.weigher = weigher;
+        }
+
+        void add(K key, V value) {
+            long valueWeight = weigher.applyAsLong(value);
+            if (valueWeight > maxWeight) {
+                return;
+            }
+            V previous = put(key, value);
+            if (previous != null) {
+                weight -= weigher.applyAsLong(previous);
+            }
+            weight += valueWeight;
+
+            Iterator<V> it = values().iterator();
+            while (weight > maxWeight) {
+                weight -= weigher.applyAsLong(it.next());
+                it.remove();
+            }
+        }
+    }
+}
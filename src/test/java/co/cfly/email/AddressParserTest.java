@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email;
+
+import java.util.List;
+
+import co.cfly.email.impl.util.AddressParser;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.InternetAddress;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AddressParserTest {
+
+    private static final List<String> ASCII = List.of("seam@domain.test", "Seam <seam@domain.test>", "\"Last, First\" <seam@domain.test>", "<seam@domain.test>",
+            "seam@domain", "seam@[127.0.0.1]", "a.b+tag@c.d", "\"a b\"@c.d", "", "  ", "seam", ".a@b.c", "a.@b.c", "a..b@c.d", "a b@c.d", "a@b@c.d", "a@b..c",
+            "a@.b.c", "Name <a@b.c", "a@b.c>", "Name a@b.c>", "woo foo @bar.com", "\"a\"b@c.d");
+
+    private static final List<String> NON_ASCII = List.of("séam@domain.test", "seam@dömain.test", "\"séam\"@domain.test", "Séam <séam@domain.test>", "用户@例子.广告",
+            "seam@[1é]");
+
+    @Test
+    public void matchesStrictInternetAddress() {
+        for (String address : ASCII) {
+            Assert.assertEquals(address, accepted(address), new AddressParser(false).parse(address) != null);
+        }
+        // Display names are encoded, so may be non-ASCII either way
+        Assert.assertNotNull(new AddressParser(false).parse("Séam <seam@domain.test>"));
+    }
+
+    @Test
+    public void rejectsNonAsciiUnlessUtf8Allowed() {
+        for (String address : NON_ASCII) {
+            Assert.assertTrue(address, accepted(address));
+            Assert.assertNull(address, new AddressParser(false).parse(address));
+            Assert.assertNotNull(address, new AddressParser(true).parse(address));
+        }
+    }
+
+    @Test
+    public void rejectsHyphenatedLabelsAndComments() {
+        for (String address : List.of("a@-b.c", "a@b-.c", "a@b.c (comment)")) {
+            Assert.assertTrue(address, accepted(address));
+            Assert.assertNull(address, new AddressParser(false).parse(address));
+        }
+    }
+
+    @Test
+    public void boundsQuotedEscapes() {
+        // The backslash may not escape the closing quote of the local part
+        for (String address : List.of("\"ab\\\"@c.d", "\"\\\"@c.d")) {
+            Assert.assertFalse(address, accepted(address));
+            Assert.assertNull(address, new AddressParser(false).parse(address));
+        }
+        Assert.assertNotNull(new AddressParser(false).parse("\"a\\\"b\"@c.d"));
+        Assert.assertTrue(accepted("\"a\\\"b\"@c.d"));
+    }
+
+    private static boolean accepted(String address) {
+        try {
+            new InternetAddress(address, true);
+            return true;
+        }
+        catch (AddressException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email;
+
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.impl.MailMessageImpl;
+import co.cfly.email.impl.templating.SimpleTemplate;
+import co.cfly.email.impl.util.CssInliner;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CssInlinerTest {
+
+    private static final String TEMPLATE = """
+            <html><head><style>
+            /* brand */
+            p { color: black; margin: 0 }
+            .note { color: gray; }
+            #total { font-weight: bold !important }
+            li + li { border-top: 1px solid #eee }
+            a:hover { color: red }
+            @media (max-width: 600px) { p { margin: 4px } }
+            </style></head>
+            <body><p class="note" style="color: blue">Hi {{name}}</p><p id="total" style="font-weight: normal">{{total}}</p>
+            <ul><li>One</li><li>Two</li></ul><a href="https://example.com/u/{{id}}">Unsubscribe</a></body></html>""";
+
+    @Test
+    public void inlinesInCascadeOrder() {
+        CssInliner inliner = new CssInliner();
+        SimpleTemplate template = new SimpleTemplate(TEMPLATE, true);
+
+        for (int id = 0; id < 3; id++) {
+            EmailMessage e = new MailMessageImpl(m -> m).from("seam@domain.test").to("user" + id + "@domain.test").subject("Totals").bodyHtml(template)
+                    .postProcessHtml(inliner).createTextAlternative(true).put("name", "User " + id).put("total", "$" + id).put("id", id).mergeTemplates();
+
+            Document document = Jsoup.parse(e.getHtmlBody());
+            Assert.assertEquals("color: blue; margin: 0;", document.selectFirst("p.note").attr("style"));
+            Assert.assertEquals("color: black; margin: 0; font-weight: bold;", document.selectFirst("#total").attr("style"));
+            Assert.assertEquals("", document.select("li").get(0).attr("style"));
+            Assert.assertEquals("border-top: 1px solid #eee;", document.select("li").get(1).attr("style"));
+            Assert.assertEquals("https://example.com/u/" + id, document.selectFirst("a").attr("href"));
+            Assert.assertTrue(e.getHtmlBody().contains("Hi User " + id));
+
+            String retained = document.select("style").html();
+            Assert.assertEquals(1, document.select("style").size());
+            Assert.assertTrue(retained, retained.contains("a:hover { color: red }"));
+            Assert.assertTrue(retained, retained.contains("@media (max-width: 600px) { p { margin: 4px } }"));
+            Assert.assertFalse(retained, retained.contains(".note"));
+
+            Assert.assertTrue(e.getTextBody().startsWith("Hi User " + id));
+        }
+        Assert.assertEquals(1, inliner.getCachedStylesheets());
+    }
+
+    @Test
+    public void appliesInlineImportantLast() {
+        String html = """
+                <html><head><style>
+                p { color: red !important; margin: 0 !important }
+                @media (max-width: 600px) { p { color: green } }
+                </style></head>
+                <body><p style="color: blue !important; margin: 4px">Hi</p></body></html>""";
+
+        Document document = Jsoup.parse(new CssInliner().process(html));
+        Assert.assertEquals("margin: 0; color: blue !important;", document.selectFirst("p").attr("style"));
+    }
+
+    @Test
+    public void leavesHtmlWithoutStylesUntouched() {
+        String html = "<html><body><p>Plain</p></body></html>";
+        Assert.assertSame(html, new CssInliner().process(html));
+    }
+}
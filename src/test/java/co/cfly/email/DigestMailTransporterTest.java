@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.SendFailedException;
+import co.cfly.email.api.SendResult;
+import co.cfly.email.impl.DigestMailTransporter;
+import co.cfly.email.impl.MailMessageImpl;
+import co.cfly.email.impl.templating.velocity.VelocityTemplate;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DigestMailTransporterTest {
+
+    @Test
+    public void coalescesPerRecipient() throws Exception {
+        List<EmailMessage> sent = new CopyOnWriteArrayList<>();
+
+        try (DigestMailTransporter transporter = new DigestMailTransporter(m -> {
+            sent.add(m);
+            return m;
+        }, Duration.ofMillis(300), new VelocityTemplate("$count alerts"), new VelocityTemplate("#foreach($m in $messages)$m.subject\n#end"))) {
+            for (int i = 0; i < 5; i++) {
+                new MailMessageImpl(transporter).from("alerts@domain.test").to("oncall@domain.test").subject("Alert " + i).bodyText("Disk full").send();
+            }
+            new MailMessageImpl(transporter).from("alerts@domain.test").to("other@domain.test").subject("Only").bodyText("Disk full").send();
+            new MailMessageImpl(transporter).from("billing@domain.test").to("oncall@domain.test").subject("Invoice").bodyText("Due").send();
+
+            Assert.assertEquals(0, sent.size());
+            Assert.assertEquals(7, transporter.getPending());
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (sent.size() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+        }
+
+        Assert.assertEquals(3, sent.size());
+        sent.sort(Comparator.comparing(EmailMessage::getSubject));
+
+        Assert.assertEquals("5 alerts", sent.get(0).getSubject());
+        Assert.assertEquals("Alert 0\nAlert 1\nAlert 2\nAlert 3\nAlert 4\n", sent.get(0).getTextBody());
+        Assert.assertEquals("oncall@domain.test", sent.get(0).getToAddresses().iterator().next().getAddress());
+        Assert.assertEquals("alerts@domain.test", sent.get(0).getFromAddresses().iterator().next().getAddress());
+        Assert.assertEquals("Invoice", sent.get(1).getSubject());
+        Assert.assertEquals("Only", sent.get(2).getSubject());
+    }
+
+    @Test
+    public void fansOutMultipleRecipients() throws Exception {
+        List<EmailMessage> sent = new CopyOnWriteArrayList<>();
+
+        try (DigestMailTransporter transporter = new DigestMailTransporter(m -> {
+            sent.add(m);
+            return m;
+        }, Duration.ofMillis(300), new VelocityTemplate("$count alerts"), new VelocityTemplate("#foreach($m in $messages)$m.subject\n#end"))) {
+            new MailMessageImpl(transporter).from("alerts@domain.test").to("oncall@domain.test").cc("lead@domain.test").subject("Both").bodyText("Disk full").send();
+            new MailMessageImpl(transporter).from("ALERTS@domain.test").to("Lead@Domain.test").subject("Lead only").bodyText("Disk full").send();
+
+            Assert.assertEquals(3, transporter.getPending());
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (sent.size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+        }
+
+        Assert.assertEquals(2, sent.size());
+        sent.sort(Comparator.comparing(EmailMessage::getSubject));
+
+        Assert.assertEquals("2 alerts", sent.get(0).getSubject());
+        Assert.assertEquals("Both\nLead only\n", sent.get(0).getTextBody());
+        Assert.assertTrue(sent.get(0).getToAddresses().isEmpty());
+        Assert.assertEquals("lead@domain.test", sent.get(0).getCcAddresses().iterator().next().getAddress());
+        Assert.assertEquals("Both", sent.get(1).getSubject());
+        Assert.assertEquals(1, sent.get(1).getToAddresses().size());
+        Assert.assertTrue(sent.get(1).getCcAddresses().isEmpty());
+    }
+
+    @Test
+    public void reportsDigestFailures() throws Exception {
+        List<SendResult> results = new CopyOnWriteArrayList<>();
+
+        try (DigestMailTransporter transporter = new DigestMailTransporter(m -> {
+            throw new SendFailedException("Relay unavailable");
+        }, Duration.ofMinutes(1), new VelocityTemplate("$count alerts"), new VelocityTemplate("#foreach($m in $messages)$m.subject\n#end"))) {
+            transporter.setResultListener(results::add);
+            for (int i = 0; i < 3; i++) {
+                new MailMessageImpl(transporter).from("alerts@domain.test").to("oncall@domain.test").subject("Alert " + i).bodyText("Disk full").send();
+            }
+        }
+
+        Assert.assertEquals(3, results.size());
+        Assert.assertTrue(results.stream().noneMatch(SendResult::isSuccess));
+        Assert.assertTrue(results.stream().allMatch(r -> r.getFailure() instanceof SendFailedException));
+    }
+}
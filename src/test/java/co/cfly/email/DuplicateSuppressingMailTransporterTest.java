@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.SendFailedException;
+import co.cfly.email.impl.DuplicateSuppressingMailTransporter;
+import co.cfly.email.impl.MailMessageImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DuplicateSuppressingMailTransporterTest {
+
+    @Test
+    public void dropsRepeatsWithinWindow() throws Exception {
+        AtomicInteger sends = new AtomicInteger();
+        DuplicateSuppressingMailTransporter transporter = new DuplicateSuppressingMailTransporter(m -> {
+            sends.incrementAndGet();
+            return m;
+        }, Duration.ofMillis(200));
+
+        for (int i = 0; i < 50; i++) {
+            new MailMessageImpl(transporter).to("a@domain.test", "b@domain.test").subject("Disk full").bodyText("Disk  full\n on host1").send();
+        }
+        new MailMessageImpl(transporter).to("b@domain.test", "a@domain.test").subject("Disk full").bodyText("Disk full on host1 ").send();
+        Assert.assertEquals(1, sends.get());
+
+        new MailMessageImpl(transporter).to("a@domain.test", "b@domain.test").subject("Disk full").bodyText("Disk full on host2").send();
+        Assert.assertEquals(2, sends.get());
+        Assert.assertEquals(50, transporter.getSuppressedCount());
+
+        Thread.sleep(250);
+        new MailMessageImpl(transporter).to("a@domain.test", "b@domain.test").subject("Disk full").bodyText("Disk full on host1").send();
+        Assert.assertEquals(3, sends.get());
+    }
+
+    @Test
+    public void comparesDeferredHtml() throws Exception {
+        AtomicInteger sends = new AtomicInteger();
+        DuplicateSuppressingMailTransporter transporter = new DuplicateSuppressingMailTransporter(m -> {
+            Assert.assertNotNull(m.getHtmlBody());
+            sends.incrementAndGet();
+            return m;
+        }, Duration.ofMinutes(1));
+
+        for (String host : new String[] { "host1", "host2", "host1" }) {
+            EmailMessage e = new MailMessageImpl(transporter).to("a@domain.test").subject("Disk full").bodyHtml("placeholder").mergeTemplates();
+            e.setHtmlBody(null);
+            e.setDeferredHtmlBody(writer -> writer.write("<p>Disk full on " + host + "</p>"));
+            transporter.send(e);
+        }
+        Assert.assertEquals(2, sends.get());
+    }
+
+    @Test
+    public void retriesAfterFailedSend() throws Exception {
+        AtomicInteger sends = new AtomicInteger();
+        DuplicateSuppressingMailTransporter transporter = new DuplicateSuppressingMailTransporter(m -> {
+            if (sends.incrementAndGet() == 1) {
+                throw new SendFailedException("Relay unavailable");
+            }
+            return m;
+        }, Duration.ofMinutes(1));
+
+        try {
+            new MailMessageImpl(transporter).to("a@domain.test").subject("Disk full").bodyText("Disk full on host1").send();
+            Assert.fail("Expected the first send to fail");
+        }
+        catch (SendFailedException e) {
+            // expected
+        }
+        new MailMessageImpl(transporter).to("a@domain.test").subject("Disk full").bodyText("Disk full on host1").send();
+        new MailMessageImpl(transporter).to("a@domain.test").subject("Disk full").bodyText("Disk full on host1").send();
+        Assert.assertEquals(2, sends.get());
+        Assert.assertEquals(1, transporter.getSuppressedCount());
+    }
+}
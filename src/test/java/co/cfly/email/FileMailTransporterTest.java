@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.SendFailedException;
+import co.cfly.email.impl.FileMailTransporter;
+import co.cfly.email.impl.MailMessageImpl;
+import co.cfly.email.impl.util.MailUtility;
+import co.cfly.email.util.TestMailConfigs;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileMailTransporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesEmlFiles() throws IOException, MessagingException {
+        Path directory = folder.getRoot().toPath();
+
+        try (FileMailTransporter transporter = new FileMailTransporter(MailUtility.createSession(TestMailConfigs.standardConfig()), directory)) {
+            EmailMessage e = new MailMessageImpl(transporter).from("seam@domain.test").to("seamy@domain.test").subject("Eml").bodyText("Hello").messageId("1234@seam.test.com").send();
+            Assert.assertEquals("1234@seam.test.com", e.getMessageId());
+        }
+
+        Path eml = directory.resolve("1234@seam.test.com.eml");
+        Assert.assertTrue(Files.exists(eml));
+        try (InputStream inputStream = Files.newInputStream(eml)) {
+            MimeMessage mimeMessage = new MimeMessage(null, inputStream);
+            Assert.assertEquals("Eml", mimeMessage.getSubject());
+        }
+    }
+
+    @Test
+    public void appendsToCompressedArchive() throws IOException {
+        Path directory = folder.getRoot().toPath();
+
+        try (FileMailTransporter transporter = new FileMailTransporter(MailUtility.createSession(TestMailConfigs.standardConfig()), directory, FileMailTransporter.Mode.COMPRESSED_ARCHIVE)) {
+            for (int i = 0; i < 25; i++) {
+                new MailMessageImpl(transporter).from("seam@domain.test").to("seamy@domain.test").subject("Archive " + i).bodyText("From here on\n>From there").send();
+            }
+        }
+
+        List<Path> archives;
+        try (var files = Files.list(directory)) {
+            archives = files.toList();
+        }
+        Assert.assertEquals(1, archives.size());
+        Assert.assertTrue(archives.getFirst().toString().endsWith(".mbox.gz"));
+
+        String mbox;
+        try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(archives.getFirst()))) {
+            mbox = new String(inputStream.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+        Assert.assertEquals(25, mbox.lines().filter(l -> l.startsWith("From MAILER-DAEMON ")).count());
+        Assert.assertEquals(25, mbox.lines().filter(l -> l.startsWith(">From here on")).count());
+        Assert.assertEquals(25, mbox.lines().filter(l -> l.startsWith(">>From there")).count());
+    }
+
+    @Test
+    public void closeFailsOrCommitsEverySend() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        FileMailTransporter transporter = new FileMailTransporter(MailUtility.createSession(TestMailConfigs.standardConfig()), directory, FileMailTransporter.Mode.ARCHIVE);
+
+        AtomicInteger sent = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        List<Thread> senders = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            senders.add(Thread.ofVirtual().start(() -> {
+                for (int j = 0; j < 25; j++) {
+                    try {
+                        new MailMessageImpl(transporter).from("seam@domain.test").to("seamy@domain.test").subject("Race").bodyText("Hello").send();
+                        sent.incrementAndGet();
+                    }
+                    catch (SendFailedException e) {
+                        failed.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        Thread.sleep(20);
+        transporter.close();
+        transporter.close();
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        Assert.assertEquals(200, sent.get() + failed.get());
+        long archived = 0;
+        try (var files = Files.list(directory)) {
+            for (Path archive : files.toList()) {
+                archived += Files.readAllLines(archive, StandardCharsets.US_ASCII).stream().filter(l -> l.startsWith("From MAILER-DAEMON ")).count();
+            }
+        }
+        Assert.assertEquals(sent.get(), archived);
+    }
+}
@@ -1,6 +1,14 @@
 package co.cfly.email;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.impl.MailMessageImpl;
 import co.cfly.email.impl.util.HtmlToPlainText;
+import co.cfly.email.impl.util.MailUtility;
+import co.cfly.email.impl.util.TextAlternativeCache;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -12,4 +20,63 @@ public class HtmlToTextTest {
         final String text = HtmlToPlainText.convert(html);
         Assert.assertEquals("Foo ( https://www.clearfly.net/ )", text);
     }
+
+    @Test
+    public void convertToWriter() throws IOException {
+        final String html = "<html><head><title>Offers</title></head><body><h1>Offers</h1><p>Dear Seamy,</p><ul><li>Lamp<li>Chair "
+                + "<a href=\"https://example.com/chair\">view</a></ul><div>Thanks</div></body></html>";
+        final StringWriter writer = new StringWriter();
+        HtmlToPlainText.convert(new StringReader(html), writer);
+        Assert.assertEquals("Offers\n\nDear Seamy,\n\n * Lamp\n * Chair view ( https://example.com/chair )Thanks\n", writer.toString());
+        Assert.assertEquals(writer.toString(), HtmlToPlainText.convert(html));
+    }
+
+    @Test
+    public void configurableWrapAndLinks() {
+        final HtmlToPlainText converter = new HtmlToPlainText();
+        converter.setWrapWidth(30);
+        converter.setLinkStyle(HtmlToPlainText.LinkStyle.ANGLE_BRACKETS);
+        final String html = "<p>The quick brown fox jumps over the lazy dog</p><a href=\"https://example.com/\">Foo</a>";
+        Assert.assertEquals("The quick brown fox jumps \nover the lazy dog\nFoo <https://example.com/>", converter.toPlainText(html));
+
+        converter.setLinkStyle(HtmlToPlainText.LinkStyle.NONE);
+        Assert.assertEquals("Foo", converter.toPlainText("<a href=\"https://example.com/\">Foo</a>"));
+    }
+
+    @Test
+    public void cachedTextAlternative() {
+        MailUtility.enableTextAlternativeCache(100000);
+        try {
+            for (int i = 0; i < 10; i++) {
+                String html = "<p>Offers for " + (i % 2 == 0 ? "pro" : "free") + "</p>";
+                EmailMessage e = new MailMessageImpl(m -> m).from("seam@domain.test").to("user" + i + "@domain.test").subject("Offers").bodyHtml(html)
+                        .createTextAlternative(true).parallelMerge(i >= 5).mergeTemplates();
+                Assert.assertEquals(HtmlToPlainText.convert(html), e.getTextBody());
+            }
+
+            TextAlternativeCache cache = MailUtility.getTextAlternativeCache();
+            Assert.assertEquals(8, cache.getHitCount());
+            Assert.assertEquals(2, cache.getMissCount());
+            Assert.assertEquals(2, cache.size());
+        }
+        finally {
+            MailUtility.disableTextAlternativeCache();
+        }
+    }
+
+    @Test
+    public void textAlternativeCacheMissesOnHashCollision() {
+        // Every HTML body hashes alike, only the stored HTML tells them apart
+        TextAlternativeCache cache = new TextAlternativeCache(100000, html -> 0);
+        String pro = "<p>Offers for pro</p>";
+        String free = "<p>Offers for free</p>";
+
+        Assert.assertEquals(HtmlToPlainText.convert(pro), cache.get(pro, HtmlToPlainText::convert));
+        Assert.assertEquals(HtmlToPlainText.convert(free), cache.get(free, HtmlToPlainText::convert));
+        Assert.assertEquals(HtmlToPlainText.convert(free), cache.get(free, HtmlToPlainText::convert));
+        Assert.assertEquals(HtmlToPlainText.convert(pro), cache.get(pro, HtmlToPlainText::convert));
+
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(3, cache.getMissCount());
+    }
 }
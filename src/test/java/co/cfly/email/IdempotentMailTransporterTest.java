@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.SendFailedException;
+import co.cfly.email.impl.IdempotentMailTransporter;
+import co.cfly.email.impl.LocalIdempotencyStore;
+import jakarta.mail.Address;
+import jakarta.mail.internet.InternetAddress;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IdempotentMailTransporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void retriesOnlyDefiniteFailures() throws Exception {
+        InternetAddress recipient = new InternetAddress("nobody@example.com");
+        AtomicInteger attempts = new AtomicInteger();
+        IdempotentMailTransporter transporter = new IdempotentMailTransporter(emailMessage -> {
+            switch (attempts.incrementAndGet()) {
+                case 1 -> throw new SendFailedException("Send Failed", new jakarta.mail.SendFailedException("Invalid Addresses", null, null, null, new Address[] { recipient }));
+                case 2 -> throw new SendFailedException("Send exceeded deadline of 1000ms", new TimeoutException());
+                default -> {
+                    return emailMessage;
+                }
+            }
+        }, LocalIdempotencyStore.create(Duration.ofHours(1), 1000));
+
+        EmailMessage emailMessage = new EmailMessage();
+        emailMessage.setMessageId("abc@example.com");
+
+        // Rejected recipients, nothing was sent so the retry goes through
+        Assert.assertThrows(SendFailedException.class, () -> transporter.send(emailMessage));
+        // A timeout may have been accepted by the relay, so the retry is suppressed
+        Assert.assertThrows(SendFailedException.class, () -> transporter.send(emailMessage));
+        transporter.send(emailMessage);
+
+        Assert.assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void assignsMessageIdBeforeReserving() {
+        AtomicInteger attempts = new AtomicInteger();
+        IdempotentMailTransporter transporter = new IdempotentMailTransporter(emailMessage -> {
+            attempts.incrementAndGet();
+            throw new SendFailedException("Connection reset after DATA");
+        }, LocalIdempotencyStore.create(Duration.ofHours(1), 1000));
+
+        EmailMessage emailMessage = new EmailMessage();
+        Assert.assertThrows(SendFailedException.class, () -> transporter.send(emailMessage));
+        Assert.assertNotNull(emailMessage.getMessageId());
+        transporter.send(emailMessage);
+
+        Assert.assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void journalSurvivesRestart() throws Exception {
+        Path journal = folder.getRoot().toPath().resolve("sent.log");
+        AtomicInteger attempts = new AtomicInteger();
+
+        EmailMessage emailMessage = new EmailMessage();
+        emailMessage.setMessageId("restart@example.com");
+
+        try (LocalIdempotencyStore store = LocalIdempotencyStore.create(Duration.ofHours(1), 1000, journal)) {
+            new IdempotentMailTransporter(m -> {
+                attempts.incrementAndGet();
+                return m;
+            }, store).send(emailMessage);
+        }
+
+        try (LocalIdempotencyStore store = LocalIdempotencyStore.create(Duration.ofHours(1), 1000, journal)) {
+            Assert.assertEquals(1, store.size());
+            new IdempotentMailTransporter(m -> {
+                attempts.incrementAndGet();
+                return m;
+            }, store).send(emailMessage);
+        }
+
+        Assert.assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void completesAfterJournalClosed() throws Exception {
+        Path journal = folder.getRoot().toPath().resolve("sent.log");
+        LocalIdempotencyStore store = LocalIdempotencyStore.create(Duration.ofHours(1), 1000, journal);
+        store.close();
+        store.close();
+
+        Assert.assertTrue(store.reserve("late@example.com"));
+        store.complete("late@example.com");
+        Assert.assertFalse(store.reserve("late@example.com"));
+    }
+
+    @Test
+    public void sweepCompactsJournal() throws Exception {
+        Path journal = folder.getRoot().toPath().resolve("sent.log");
+        try (LocalIdempotencyStore store = LocalIdempotencyStore.create(Duration.ofHours(1), 1000, journal)) {
+            for (int i = 0; i < 3; i++) {
+                Assert.assertTrue(store.reserve("key" + i));
+                store.complete("key" + i);
+            }
+            store.complete("key0");
+            Assert.assertEquals(4, Files.readAllLines(journal).size());
+
+            store.sweep();
+            Assert.assertEquals(3, Files.readAllLines(journal).size());
+            store.complete("key3");
+            Assert.assertEquals(4, Files.readAllLines(journal).size());
+        }
+    }
+}
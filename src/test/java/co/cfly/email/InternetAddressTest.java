@@ -15,12 +15,16 @@ package co.cfly.email;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import co.cfly.email.api.EmailContact;
 import co.cfly.email.api.InvalidAddressException;
+import co.cfly.email.api.RecipientType;
 import co.cfly.email.api.MailMessage;
 import co.cfly.email.impl.BasicEmailContact;
 import co.cfly.email.impl.MailMessageImpl;
+import co.cfly.email.impl.util.MailUtility;
 import co.cfly.email.util.TestMailConfigs;
 import jakarta.mail.internet.InternetAddress;
 import org.junit.Assert;
@@ -174,4 +178,45 @@ public class InternetAddressTest {
         Assert.assertEquals("Testy <foo@foo.com>", toAddresses.get(1).toString());
 
     }
+
+    @Test
+    public void cachedAddressesAreCopies() {
+        MailUtility.enableAddressCache(100);
+        try {
+            InternetAddress first = MailUtility.internetAddress("Seam Seamerson<seam@domain.test>");
+            first.setAddress("changed@domain.test");
+
+            InternetAddress second = MailUtility.internetAddress("Seam Seamerson<seam@domain.test>");
+            Assert.assertEquals("seam@domain.test", second.getAddress());
+            Assert.assertNotSame(first, second);
+
+            Assert.assertEquals("Seam <seam@domain.test>", MailUtility.internetAddress(new BasicEmailContact("seam@domain.test", "Seam")).toString());
+            Assert.assertThrows(InvalidAddressException.class, () -> MailUtility.internetAddress("woo foo @bar.com"));
+        }
+        finally {
+            MailUtility.disableAddressCache();
+        }
+    }
+
+    @Test
+    public void bulkRecipients() {
+        MailMessage m = new MailMessageImpl(TestMailConfigs.standardConfig());
+        Map<String, String> invalid = new TreeMap<>();
+
+        m.addRecipientAddresses(RecipientType.TO, List.of("seam@domain.test", "Seam Seamerson<seamey@domain.test>", "\"Seamerson, Seam\" <s.s@domain.test>", "woo foo @bar.com",
+                "Woo", "a..b@domain.test", "a@-domain.test", "Seam <open@domain.test"), invalid::put);
+        m.addRecipients(RecipientType.BCC, List.of(new BasicEmailContact("seam@domain.test", "Seam"), new BasicEmailContact("foo @bar.com", "Woo")), invalid::put);
+
+        List<InternetAddress> to = m.getEmailMessage().getToAddresses().stream().toList();
+        Assert.assertEquals(3, to.size());
+        Assert.assertEquals("Seam Seamerson", to.get(1).getPersonal());
+        Assert.assertEquals("Seamerson, Seam", to.get(2).getPersonal());
+        Assert.assertEquals("s.s@domain.test", to.get(2).getAddress());
+        Assert.assertEquals("Seam <seam@domain.test>", m.getEmailMessage().getBccAddresses().iterator().next().toString());
+
+        Assert.assertEquals(6, invalid.size());
+        Assert.assertTrue(invalid.containsKey("woo foo @bar.com"));
+        Assert.assertTrue(invalid.containsKey("foo @bar.com"));
+        Assert.assertEquals("Missing closing >", invalid.get("Seam <open@domain.test"));
+    }
 }
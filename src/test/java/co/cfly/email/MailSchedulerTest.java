@@ -0,0 +1,257 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email;
+
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import co.cfly.email.api.ContentDisposition;
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.SendFailedException;
+import co.cfly.email.impl.MailMessageImpl;
+import co.cfly.email.impl.SpoolMailScheduler;
+import co.cfly.email.impl.util.TimerWheel;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MailSchedulerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void timerWheelExpiresOnTime() {
+        TimerWheel<long[]> wheel = new TimerWheel<>(1, 3, 0);
+        Random random = new Random(42);
+        List<long[]> late = new ArrayList<>();
+
+        for (int i = 0; i < 10000; i++) {
+            // Spread over all three levels and the overflow
+            long due = random.nextInt(400000);
+            wheel.schedule(due, new long[] { due });
+        }
+
+        for (long now = 0; now <= 400000; now += 1 + random.nextInt(3)) {
+            long time = now;
+            wheel.advance(now, due -> {
+                if (due[0] > time || due[0] < time - 3) {
+                    late.add(due);
+                }
+            });
+        }
+
+        Assert.assertEquals(0, wheel.size());
+        Assert.assertTrue(late.isEmpty());
+    }
+
+    @Test
+    public void sendsAtScheduledTime() throws Exception {
+        Path spool = folder.getRoot().toPath();
+        List<String> sent = new CopyOnWriteArrayList<>();
+        Instant start = Instant.parse("2026-03-01T09:00:00Z");
+        TestClock clock = new TestClock(start);
+
+        String cancelled;
+        try (SpoolMailScheduler scheduler = SpoolMailScheduler.create(m -> {
+            sent.add(m.getSubject());
+            return m;
+        }, spool, Duration.ofSeconds(1), clock)) {
+            new MailMessageImpl(m -> m).subject("now").sendAt(scheduler, start.minusSeconds(1));
+            cancelled = new MailMessageImpl(m -> m).subject("cancelled").sendAt(scheduler, start.plusSeconds(1));
+            schedule(scheduler, "paged", start.plusSeconds(3));
+
+            Assert.assertTrue(scheduler.cancel(cancelled));
+            awaitSent(scheduler, sent, 1);
+            Assert.assertEquals(List.of("now"), sent);
+
+            // Restart before the paged message is due, it must be picked up from the spool
+            schedule(scheduler, "restarted", start.plusSeconds(2));
+        }
+
+        try (SpoolMailScheduler scheduler = SpoolMailScheduler.create(m -> {
+            sent.add(m.getSubject());
+            return m;
+        }, spool, Duration.ofSeconds(1), clock)) {
+            clock.set(start.plusSeconds(2));
+            awaitSent(scheduler, sent, 2);
+            Assert.assertEquals(List.of("now", "restarted"), sent);
+
+            clock.set(start.plusSeconds(3));
+            awaitSent(scheduler, sent, 3);
+            Assert.assertEquals(List.of("now", "restarted", "paged"), sent);
+            Assert.assertFalse(scheduler.cancel(cancelled));
+        }
+    }
+
+    @Test
+    public void retriesWithBackoff() throws Exception {
+        Path spool = folder.getRoot().toPath();
+        List<String> attempts = new CopyOnWriteArrayList<>();
+        Instant start = Instant.parse("2026-03-01T09:00:00Z");
+        TestClock clock = new TestClock(start);
+
+        try (SpoolMailScheduler scheduler = SpoolMailScheduler.create(m -> {
+            attempts.add(m.getSubject());
+            if (m.getSubject().equals("doomed") || attempts.size() < 3) {
+                throw new SendFailedException("Relay unavailable");
+            }
+            return m;
+        }, spool, Duration.ofSeconds(1), clock)) {
+            scheduler.setRetry(3, Duration.ofSeconds(10));
+            schedule(scheduler, "flaky", start);
+            awaitSent(scheduler, attempts, 1);
+            awaitRetry(spool, 1);
+
+            // Not retried before the backoff has passed
+            clock.set(start.plusSeconds(9));
+            scheduler.advance();
+            Assert.assertEquals(1, attempts.size());
+            clock.set(start.plusSeconds(10));
+            awaitSent(scheduler, attempts, 2);
+            awaitRetry(spool, 2);
+            clock.set(start.plusSeconds(29));
+            scheduler.advance();
+            Assert.assertEquals(2, attempts.size());
+            clock.set(start.plusSeconds(30));
+            awaitSent(scheduler, attempts, 3);
+            Assert.assertEquals(List.of("flaky", "flaky", "flaky"), attempts);
+
+            schedule(scheduler, "doomed", start.plusSeconds(30));
+            for (int i = 1; i <= 3; i++) {
+                awaitSent(scheduler, attempts, 3 + i);
+                if (i < 3) {
+                    awaitRetry(spool, i);
+                    clock.set(clock.instant().plusSeconds(10 << (i - 1)));
+                }
+            }
+        }
+
+        Assert.assertEquals(6, attempts.size());
+        try (var failed = Files.list(spool.resolve("failed"))) {
+            Assert.assertEquals(1, failed.count());
+        }
+    }
+
+    @Test
+    public void spoolOnlyReadsMessageClasses() throws Exception {
+        Path spool = folder.getRoot().toPath();
+        List<EmailMessage> sent = new CopyOnWriteArrayList<>();
+        Instant start = Instant.parse("2026-03-01T09:00:00Z");
+
+        // Left in sending/ by a crash, it is read back on startup
+        Path sending = Files.createDirectories(spool.resolve("sending"));
+        try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(sending.resolve(start.toEpochMilli() + "-" + UUID.randomUUID() + ".msg")))) {
+            out.writeObject(new HashMap<>(Map.of("not", "a message")));
+        }
+
+        try (SpoolMailScheduler scheduler = SpoolMailScheduler.create(m -> {
+            sent.add(m);
+            return m;
+        }, spool, Duration.ofSeconds(1), new TestClock(start))) {
+            awaitRetry(spool, 1);
+
+            new MailMessageImpl(m -> m).subject("attached").to("seamy@domain.test").addHeader("X-Test", "spooled")
+                    .addAttachment("a.txt", "text/plain", ContentDisposition.ATTACHMENT, "attachment".getBytes(StandardCharsets.UTF_8)).sendAt(scheduler, start);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (sent.isEmpty() && System.currentTimeMillis() < deadline) {
+                scheduler.advance();
+                Thread.sleep(5);
+            }
+        }
+
+        Assert.assertEquals(1, sent.size());
+        EmailMessage emailMessage = sent.getFirst();
+        Assert.assertEquals("attached", emailMessage.getSubject());
+        Assert.assertEquals("seamy@domain.test", emailMessage.getToAddresses().iterator().next().getAddress());
+        Assert.assertEquals("X-Test", emailMessage.getHeaders().getFirst().getName());
+        Assert.assertArrayEquals("attachment".getBytes(StandardCharsets.UTF_8), emailMessage.getAttachments().getFirst().getBytes());
+    }
+
+    private static void schedule(SpoolMailScheduler scheduler, String subject, Instant at) {
+        EmailMessage emailMessage = new EmailMessage();
+        emailMessage.setSubject(subject);
+        scheduler.schedule(emailMessage, at);
+    }
+
+    /**
+     * Sends happen on other threads, keep advancing until they have been made
+     */
+    private static void awaitSent(SpoolMailScheduler scheduler, List<String> sent, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (sent.size() < count && System.currentTimeMillis() < deadline) {
+            scheduler.advance();
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(count, sent.size());
+    }
+
+    /**
+     * The retry is spooled after the failed send returns, wait for it before moving the clock on
+     */
+    private static void awaitRetry(Path spool, int attempt) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            try (var files = Files.walk(spool)) {
+                if (files.anyMatch(file -> file.getFileName().toString().endsWith("-r" + attempt + ".msg") && !file.getParent().endsWith("sending"))) {
+                    return;
+                }
+            }
+            Thread.sleep(5);
+        }
+        Assert.fail("Attempt " + attempt + " was not spooled for retry");
+    }
+
+    private static class TestClock extends Clock {
+
+        private volatile Instant instant;
+
+        TestClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        void set(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.SendFailedException;
+import co.cfly.email.api.SendResult;
+import co.cfly.email.impl.MailSendProcessor;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MailSendProcessorTest {
+
+    @Test
+    public void sendsWithBoundedConcurrency() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+
+        MailSendProcessor processor = new MailSendProcessor(emailMessage -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(2);
+                if ("fail".equals(emailMessage.getSubject())) {
+                    throw new SendFailedException("Relay rejected message");
+                }
+                return emailMessage;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SendFailedException(e);
+            }
+            finally {
+                active.decrementAndGet();
+            }
+        }, 4);
+
+        List<SendResult> results = new CopyOnWriteArrayList<>();
+        var done = processor.consume(results::add);
+
+        try (SubmissionPublisher<EmailMessage> source = new SubmissionPublisher<>()) {
+            source.subscribe(processor);
+            for (int i = 0; i < 100; i++) {
+                EmailMessage emailMessage = new EmailMessage();
+                emailMessage.setSubject(i == 42 ? "fail" : "message " + i);
+                source.submit(emailMessage);
+            }
+        }
+
+        done.get(30, TimeUnit.SECONDS);
+
+        Assert.assertEquals(100, results.size());
+        Assert.assertEquals(1, results.stream().filter(r -> !r.isSuccess()).count());
+        Assert.assertTrue("Exceeded in flight limit: " + maxActive.get(), maxActive.get() <= 4);
+    }
+
+    @Test
+    public void deliversWithBoundedSendPool() throws Exception {
+        ExecutorService sendPool = Executors.newFixedThreadPool(2);
+        try {
+            MailSendProcessor processor = new MailSendProcessor(emailMessage -> emailMessage, 8, sendPool);
+
+            // A slow consumer fills the downstream buffer, blocking every send thread in submit()
+            AtomicInteger received = new AtomicInteger();
+            var done = processor.consume(result -> {
+                try {
+                    Thread.sleep(1);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                received.incrementAndGet();
+            });
+
+            try (SubmissionPublisher<EmailMessage> source = new SubmissionPublisher<>()) {
+                source.subscribe(processor);
+                for (int i = 0; i < 500; i++) {
+                    source.submit(new EmailMessage());
+                }
+            }
+
+            done.get(30, TimeUnit.SECONDS);
+            Assert.assertEquals(500, received.get());
+        }
+        finally {
+            sendPool.shutdown();
+        }
+    }
+}
@@ -3,11 +3,15 @@ package co.cfly.email;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.ServerSocket;
 import java.nio.charset.StandardCharsets;
 import java.util.Properties;
 
 import co.cfly.email.api.ContentDisposition;
 import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.SendFailedException;
+import co.cfly.email.impl.MailMessageImpl;
+import co.cfly.email.impl.SimpleMailConfig;
 import co.cfly.email.impl.util.MailUtility;
 import co.cfly.email.impl.util.MessageConverter;
 import com.google.common.io.Resources;
@@ -52,6 +56,40 @@ public class MailUtilityTest {
         Assert.assertEquals(StandardCharsets.UTF_8, MailUtility.determineCharset(part, StandardCharsets.UTF_8));
     }
 
+    @Test
+    public void createSessionTimeouts() {
+        SimpleMailConfig mailConfig = new SimpleMailConfig();
+        mailConfig.setConnectTimeout(1000);
+        mailConfig.setReadTimeout(2000);
+        mailConfig.setWriteTimeout(3000);
+        mailConfig.setSendTimeout(4000);
+        Session session = MailUtility.createSession(mailConfig);
+        Assert.assertEquals("1000", session.getProperty("mail.smtp.connectiontimeout"));
+        Assert.assertEquals("2000", session.getProperty("mail.smtp.timeout"));
+        Assert.assertEquals("3000", session.getProperty("mail.smtp.writetimeout"));
+        Assert.assertEquals("4000", session.getProperty(MailUtility.SEND_TIMEOUT_PROPERTY_KEY));
+        Assert.assertNull(MailUtility.createSession(new SimpleMailConfig()).getProperty("mail.smtp.timeout"));
+    }
+
+    @Test
+    public void sendDeadlineAbortsStalledRelay() throws IOException {
+        // Accepts the connection but never sends a greeting, which would block a send forever without a deadline
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            SimpleMailConfig mailConfig = new SimpleMailConfig();
+            mailConfig.setServerPort(serverSocket.getLocalPort());
+            mailConfig.setSendTimeout(500);
+
+            long start = System.nanoTime();
+            try {
+                new MailMessageImpl(mailConfig).from("seam@domain.test").to("seamy@domain.test").subject("Stalled").bodyText("Never arrives").send();
+                Assert.fail("Send should have exceeded its deadline");
+            }
+            catch (SendFailedException e) {
+                Assert.assertTrue(System.nanoTime() - start < 5_000_000_000L);
+            }
+        }
+    }
+
     @Test
     public void decodeString() {
         Assert.assertNull(MailUtility.decodeString(null));
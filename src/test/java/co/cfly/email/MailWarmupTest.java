@@ -0,0 +1,60 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email;
+
+import java.util.List;
+import java.util.Map;
+
+import co.cfly.email.api.TemplateProvider;
+import co.cfly.email.api.TemplatingException;
+import co.cfly.email.api.WarmupReport;
+import co.cfly.email.impl.MailWarmup;
+import co.cfly.email.impl.templating.TemplateRegistry;
+import co.cfly.email.impl.templating.velocity.VelocityTemplate;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MailWarmupTest {
+
+    @Test
+    public void reportsStagesAndTemplateFailures() throws Exception {
+        try (TemplateRegistry registry = new TemplateRegistry(source -> source.startsWith("broken") ? failing() : source.startsWith("unlinked") ? unlinked() : new VelocityTemplate(source))) {
+            registry.loadResource("template.html.velocity");
+            registry.register("broken", "broken");
+            registry.register("unlinked", "unlinked");
+
+            MailWarmup warmup = new MailWarmup();
+            warmup.addRegistry(registry);
+            warmup.setSampleContext(Map.of("person", new Person("Seamy", "seamy@domain.test"), "version", "simple-email"));
+            WarmupReport report = warmup.run();
+
+            Assert.assertEquals(List.of("velocity", "simple-template", "templates", "html-to-text", "mime"), List.copyOf(report.getStages().keySet()));
+            Assert.assertEquals(List.of("broken", "unlinked"), report.getFailures().keySet().stream().sorted().toList());
+            Assert.assertTrue(report.getFailures().get("unlinked") instanceof NoClassDefFoundError);
+            Assert.assertFalse(report.isSuccess());
+            Assert.assertTrue(report.getTotal().isPositive());
+        }
+    }
+
+    private static TemplateProvider unlinked() {
+        return context -> {
+            throw new NoClassDefFoundError("org/apache/velocity/Missing");
+        };
+    }
+
+    private static TemplateProvider failing() {
+        return context -> {
+            throw new TemplatingException("Unable to render");
+        };
+    }
+}
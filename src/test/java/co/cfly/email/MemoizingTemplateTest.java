@@ -0,0 +1,45 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.impl.MailMessageImpl;
+import co.cfly.email.impl.templating.MemoizingTemplate;
+import co.cfly.email.impl.templating.velocity.VelocityTemplate;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MemoizingTemplateTest {
+
+    @Test
+    public void reusesRenderForEqualDeclaredKeys() {
+        AtomicInteger renders = new AtomicInteger();
+        VelocityTemplate velocity = new VelocityTemplate("Offers for $plan in $locale");
+        MemoizingTemplate subject = new MemoizingTemplate(context -> {
+            renders.incrementAndGet();
+            return velocity.merge(context);
+        }, 10000, "plan", "locale");
+
+        for (int i = 0; i < 20; i++) {
+            EmailMessage e = new MailMessageImpl(m -> m).from("seam@domain.test").to("user" + i + "@domain.test").subject(subject).bodyText("Hi")
+                    .put("plan", i % 2 == 0 ? "pro" : "free").put("locale", "en").put("user", "user" + i).mergeTemplates();
+            Assert.assertEquals(i % 2 == 0 ? "Offers for pro in en" : "Offers for free in en", e.getSubject());
+        }
+
+        Assert.assertEquals(2, renders.get());
+        Assert.assertEquals(18, subject.getHitCount());
+        Assert.assertEquals(2, subject.getMissCount());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import co.cfly.email.api.ContentDisposition;
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.TemplatingException;
+import co.cfly.email.impl.MailMessageImpl;
+import co.cfly.email.impl.templating.SimpleTemplate;
+import co.cfly.email.impl.util.EmailAttachmentUtil;
+import com.google.common.io.Resources;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SimpleTemplateTest {
+
+    record Item(String name, int quantity) {
+    }
+
+    @Test
+    public void rendersValuesAndSections() {
+        SimpleTemplate template = new SimpleTemplate("""
+                Hello {{user.name}},
+                {{#items}}
+                  - {{quantity}} x {{name}} for {{user.name}}
+                {{/items}}
+                {{^items}}
+                Your basket is empty
+                {{/items}}
+                {{! not rendered }}
+                {{#vip}}VIP {{.}}{{/vip}}""");
+
+        Map<String, Object> context = Map.of("user", Map.of("name", "Seamy"), "items", List.of(new Item("Lamp", 2), new Item("Chair", 1)),
+                "vip", "gold");
+        Assert.assertEquals("Hello Seamy,\n  - 2 x Lamp for Seamy\n  - 1 x Chair for Seamy\nVIP gold", template.merge(context));
+        Assert.assertEquals("Hello ,\nYour basket is empty\n", template.merge(Map.of("items", List.of())));
+    }
+
+    @Test
+    public void escapesHtml() {
+        SimpleTemplate template = new SimpleTemplate("<p>{{name}} {{{name}}} {{& name}}</p>", true);
+        Assert.assertEquals("<p>Tom &amp; &quot;Jerry&quot; Tom & \"Jerry\" Tom & \"Jerry\"</p>", template.merge(Map.of("name", "Tom & \"Jerry\"")));
+    }
+
+    @Test
+    public void rejectsMalformedTemplates() {
+        Assert.assertThrows(TemplatingException.class, () -> new SimpleTemplate("{{#items}}{{name}}"));
+        Assert.assertThrows(TemplatingException.class, () -> new SimpleTemplate("{{#items}}{{/users}}"));
+        Assert.assertThrows(TemplatingException.class, () -> new SimpleTemplate("Hello {{name"));
+    }
+
+    @Test
+    public void rendersTestTemplates() throws Exception {
+        EmailMessage e = new MailMessageImpl(m -> m).from("seam@domain.test").to("seamy@domain.test").subject(new SimpleTemplate("Hi {{person.name}}"))
+                .bodyHtmlTextAlt(new SimpleTemplate(Resources.asCharSource(Resources.getResource("template.html.simple"), StandardCharsets.UTF_8).read(), true),
+                        new SimpleTemplate(Resources.asCharSource(Resources.getResource("template.text.simple"), StandardCharsets.UTF_8).read()))
+                .addAttachment("seamLogo.png", "image/png", ContentDisposition.INLINE, new byte[] { 1 })
+                .put("person", new Person("Seamy Seamington", "seamy@domain.test")).put("version", "simple-email").mergeTemplates();
+
+        String contentId = EmailAttachmentUtil.getEmailAttachmentMap(e.getAttachments()).get("seamLogo.png").getContentId();
+        Assert.assertEquals("Hi Seamy Seamington", e.getSubject());
+        Assert.assertTrue(e.getHtmlBody(), e.getHtmlBody().contains("<a href=\"mailto:seamy@domain.test\">Seamy Seamington</a>"));
+        Assert.assertTrue(e.getHtmlBody(), e.getHtmlBody().contains("<img src=\"cid:" + contentId + "\" />"));
+        Assert.assertTrue(e.getTextBody().startsWith("Hello Seamy Seamington,\n\n"));
+        Assert.assertTrue(e.getTextBody().endsWith("sent with simple-email and the simple template engine."));
+    }
+}
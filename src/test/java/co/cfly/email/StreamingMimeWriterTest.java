@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import co.cfly.email.api.ContentDisposition;
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.api.MessagePriority;
+import co.cfly.email.impl.MailMessageImpl;
+import co.cfly.email.impl.StreamingMimeWriter;
+import co.cfly.email.impl.util.MailUtility;
+import co.cfly.email.util.TestMailConfigs;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StreamingMimeWriterTest {
+
+    private static final Pattern BOUNDARY = Pattern.compile("----=_Part_[^\"\r\n]*?(?=--\r|\r|\")");
+
+    private final Session session = MailUtility.createSession(TestMailConfigs.standardConfig());
+
+    private EmailMessage message() {
+        return new MailMessageImpl(m -> m).from("Seam Séamerson <seam@domain.test>").to("seam@domain.test").cc("Seamy <seamy@domain.test>").bcc("hidden@domain.test")
+                .subject("Offers for you, Séamus").importance(MessagePriority.HIGH).bodyHtmlTextAlt("<p>Hi <img src=\"cid:logo\"> = é</p>", "Hi \nthere é\t")
+                .addAttachment("logo.png", "image/png", ContentDisposition.INLINE, new byte[] { 1, 2, 3, (byte) 0xff })
+                .addAttachment("prices.csv", "text/csv", ContentDisposition.ATTACHMENT, "a,b\n1,2\n".getBytes(StandardCharsets.US_ASCII))
+                .messageId("offers@domain.test").mergeTemplates();
+    }
+
+    @Test
+    public void matchesJakartaMailOutput() throws Exception {
+        EmailMessage e = message();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        MailUtility.createMimeMessage(e, session).writeTo(expected);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        StreamingMimeWriter writer = new StreamingMimeWriter(session);
+        // MimeMessage.writeTo keeps the Bcc header
+        writer.setIncludeBcc(true);
+        Assert.assertEquals("offers@domain.test", writer.writeTo(e, actual));
+
+        Assert.assertEquals(normalize(expected.toString(StandardCharsets.UTF_8)), normalize(actual.toString(StandardCharsets.UTF_8)));
+
+        ByteArrayOutputStream channel = new ByteArrayOutputStream();
+        writer.writeTo(e, Channels.newChannel(channel));
+        Assert.assertEquals(normalize(actual.toString(StandardCharsets.UTF_8)), normalize(channel.toString(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void readsBackAsTheSameStructure() throws Exception {
+        EmailMessage e = message();
+        e.setDeferredHtmlBody(writer -> writer.write("<p>Deferred " + "body ".repeat(40) + "</p>"));
+        e.setHtmlBody(null);
+
+        StreamingMimeWriter writer = new StreamingMimeWriter(session);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(e, out);
+        MimeMessage parsed = new MimeMessage(session, new ByteArrayInputStream(out.toByteArray()));
+
+        Assert.assertEquals("Offers for you, Séamus", parsed.getSubject());
+        Assert.assertEquals("<offers@domain.test>", parsed.getMessageID());
+        Assert.assertEquals("1", parsed.getHeader("X-Priority", null));
+        Assert.assertNull(parsed.getHeader("Bcc"));
+
+        MimeMultipart mixed = (MimeMultipart) parsed.getContent();
+        Assert.assertEquals(2, mixed.getCount());
+        MimeMultipart related = (MimeMultipart) mixed.getBodyPart(0).getContent();
+        Assert.assertTrue(related.getContentType().startsWith("multipart/related"));
+        MimeMultipart alternative = (MimeMultipart) related.getBodyPart(0).getContent();
+        // Line breaks are CRLF once quoted-printable encoded
+        Assert.assertEquals("Hi \r\nthere é\t", alternative.getBodyPart(0).getContent());
+        Assert.assertEquals("<p>Deferred " + "body ".repeat(40) + "</p>", alternative.getBodyPart(1).getContent());
+        Assert.assertEquals("logo.png", related.getBodyPart(1).getFileName());
+        Assert.assertEquals("prices.csv", mixed.getBodyPart(1).getFileName());
+        Assert.assertEquals("a,b\n1,2\n", new String(mixed.getBodyPart(1).getInputStream().readAllBytes(), StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Boundaries are random and the Date is the time of writing
+     */
+    private static String normalize(String mime) {
+        Matcher matcher = BOUNDARY.matcher(mime.replaceAll("(?m)^Date: .*\r\n", ""));
+        Map<String, String> names = new LinkedHashMap<>();
+        StringBuilder sb = new StringBuilder();
+        while (matcher.find()) {
+            names.putIfAbsent(matcher.group(), "boundary" + names.size());
+            matcher.appendReplacement(sb, names.get(matcher.group()));
+        }
+        return matcher.appendTail(sb).toString();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.impl.SuppressionList;
+import co.cfly.email.impl.SuppressionListMailTransporter;
+import jakarta.mail.internet.InternetAddress;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SuppressionListTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadAddAndRemove() throws Exception {
+        List<String> lines = new ArrayList<>();
+        lines.add("# bounced");
+        for (int i = 0; i < 10000; i++) {
+            lines.add("User" + i + "@Example.com");
+        }
+        Path file = folder.getRoot().toPath().resolve("suppressed.txt");
+        Files.write(file, lines);
+
+        SuppressionList suppressionList = new SuppressionList();
+        suppressionList.load(file);
+
+        Assert.assertEquals(10000, suppressionList.size());
+        Assert.assertTrue(suppressionList.contains(" user42@example.com"));
+        Assert.assertFalse(suppressionList.contains("user10000@example.com"));
+
+        for (int i = 0; i < 10000; i += 2) {
+            Assert.assertTrue(suppressionList.remove("user" + i + "@example.com"));
+        }
+        Assert.assertEquals(5000, suppressionList.size());
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals(i % 2 == 1, suppressionList.contains("user" + i + "@example.com"));
+        }
+    }
+
+    @Test
+    public void filtersRecipients() throws Exception {
+        SuppressionList suppressionList = new SuppressionList();
+        suppressionList.add("bounced@example.com");
+
+        AtomicInteger sends = new AtomicInteger();
+        SuppressionListMailTransporter transporter = new SuppressionListMailTransporter(m -> {
+            sends.incrementAndGet();
+            return m;
+        }, suppressionList);
+
+        EmailMessage emailMessage = new EmailMessage();
+        emailMessage.getToAddresses().add(new InternetAddress("Bounced@example.com"));
+        emailMessage.getCcAddresses().add(new InternetAddress("ok@example.com"));
+        transporter.send(emailMessage);
+
+        Assert.assertTrue(emailMessage.getToAddresses().isEmpty());
+        Assert.assertEquals(1, emailMessage.getCcAddresses().size());
+        Assert.assertEquals(1, sends.get());
+
+        emailMessage = new EmailMessage();
+        emailMessage.getBccAddresses().add(new InternetAddress("bounced@example.com"));
+        transporter.send(emailMessage);
+        Assert.assertEquals(1, sends.get());
+    }
+}
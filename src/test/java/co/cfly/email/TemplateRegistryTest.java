@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import co.cfly.email.api.TemplateProvider;
+import co.cfly.email.api.TemplatingException;
+import co.cfly.email.impl.templating.TemplateRegistry;
+import co.cfly.email.impl.templating.velocity.VelocityTemplate;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TemplateRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadsAndReloadsByName() throws Exception {
+        Path root = folder.newFolder("templates").toPath();
+        Files.createDirectories(root.resolve("welcome"));
+        Files.writeString(root.resolve("welcome/subject.vm"), "Welcome $name");
+
+        try (TemplateRegistry registry = new TemplateRegistry(VelocityTemplate::new)) {
+            registry.loadDirectory(root);
+            registry.loadResource("template.text.velocity");
+            registry.watch();
+
+            TemplateProvider subject = registry.get("welcome/subject.vm");
+            Assert.assertEquals("Welcome Seamy", subject.merge(Map.of("name", "Seamy")));
+            Assert.assertTrue(registry.contains("template.text.velocity"));
+            Assert.assertThrows(TemplatingException.class, () -> registry.get("missing.vm"));
+
+            Files.writeString(root.resolve("welcome/subject.vm"), "Hello again $name");
+            // Broken templates are rejected and the previous version kept. Moved in whole so it is never seen half written
+            Path broken = folder.newFile("body.vm").toPath();
+            Files.writeString(broken, "#if(");
+            Files.move(broken, root.resolve("welcome/body.vm"), StandardCopyOption.ATOMIC_MOVE);
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!subject.merge(Map.of("name", "Seamy")).startsWith("Hello") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            Assert.assertEquals("Hello again Seamy", subject.merge(Map.of("name", "Seamy")));
+            Assert.assertFalse(registry.contains("welcome/body.vm"));
+        }
+    }
+
+    @Test
+    public void keepsDeletedTemplateUntilConfirmed() throws Exception {
+        Path root = folder.newFolder("templates").toPath();
+        Files.createDirectories(root.resolve("welcome"));
+        Files.writeString(root.resolve("welcome/subject.vm"), "Welcome $name");
+        Files.writeString(root.resolve("footer.vm"), "Bye");
+
+        try (TemplateRegistry registry = new TemplateRegistry(VelocityTemplate::new)) {
+            registry.setDeleteGracePeriod(Duration.ofMillis(300));
+            registry.loadDirectory(root);
+            registry.watch();
+            TemplateProvider subject = registry.get("welcome/subject.vm");
+
+            // An editor saving by delete and create
+            Files.delete(root.resolve("welcome/subject.vm"));
+            Assert.assertEquals("Welcome Seamy", subject.merge(Map.of("name", "Seamy")));
+            Files.writeString(root.resolve("welcome/subject.vm"), "Hello $name");
+            awaitCondition(() -> subject.merge(Map.of("name", "Seamy")).equals("Hello Seamy"));
+            Thread.sleep(600);
+            Assert.assertTrue(registry.contains("welcome/subject.vm"));
+
+            Files.delete(root.resolve("welcome/subject.vm"));
+            Files.delete(root.resolve("welcome"));
+            awaitCondition(() -> !registry.contains("welcome/subject.vm"));
+            Assert.assertThrows(TemplatingException.class, () -> subject.merge(Map.of()));
+            Assert.assertTrue(registry.contains("footer.vm"));
+        }
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+}
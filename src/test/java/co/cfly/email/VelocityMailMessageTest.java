@@ -14,6 +14,9 @@ package co.cfly.email;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
 import co.cfly.email.api.ContentDisposition;
 import co.cfly.email.api.EmailMessage;
@@ -300,6 +303,89 @@ public class VelocityMailMessageTest {
         Assert.assertEquals(convertedMessage.getSubject(), subject);
     }
 
+    @Test
+    public void testVelocityStreamedHTML() throws MessagingException, IOException {
+        SessionConfig mailConfig = TestMailConfigs.standardConfig();
+        Person person = new Person(toName, toAddress);
+        EmailMessage e;
+
+        Wiser wiser = new Wiser(mailConfig.getServerPort());
+        wiser.setHostname(mailConfig.getServerHost());
+        try {
+            wiser.start();
+
+            e = new MailMessageImpl(mailConfig).from(fromAddress).to(person.getEmail()).subject("Streamed HTML").put("person", person).streamHtml(true)
+                    .bodyHtml(new VelocityTemplate("<p>Dear $person.name, this line is long enough that quoted-printable has to wrap it onto a second line.</p>")).send();
+        }
+        finally {
+            stop(wiser);
+        }
+
+        Assert.assertNull(e.getHtmlBody());
+        Assert.assertEquals(1, wiser.getMessages().size());
+
+        MimeMessage mess = MailUtilityTest.fromWiser(wiser.getMessages().getFirst());
+        MimeMultipart related = (MimeMultipart) ((MimeMultipart) mess.getContent()).getBodyPart(0).getContent();
+        BodyPart html = related.getBodyPart(0);
+
+        Assert.assertTrue(html.getContentType().startsWith("text/html; charset=" + e.getCharset()));
+        Assert.assertEquals("quoted-printable", html.getHeader("Content-Transfer-Encoding")[0]);
+        Assert.assertEquals("<p>Dear " + toName + ", this line is long enough that quoted-printable has to wrap it onto a second line.</p>", MailTestUtil.getStringContent(html));
+    }
+
+    @Test
+    public void testVelocitySharedContext() {
+        Map<String, Object> shared = Map.of("brand", "Seam", "version", "Seam 3");
+
+        EmailMessage first = new MailMessageImpl(m -> m).to(toAddress).put("name", "Seamy").sharedContext(shared).put("version", "Seam 4")
+                .subject(new VelocityTemplate("$brand $version")).bodyText(new VelocityTemplate("#set($greeting = \"Hi\")$greeting $name")).send();
+        EmailMessage second = new MailMessageImpl(m -> m).to(toAddress).sharedContext(shared).put("name", "Other").subject(new VelocityTemplate("$brand $version"))
+                .bodyText(new VelocityTemplate("$!greeting$name")).send();
+
+        Assert.assertEquals("Seam Seam 4", first.getSubject());
+        Assert.assertEquals("Hi Seamy", first.getTextBody());
+        Assert.assertEquals("Seam Seam 3", second.getSubject());
+        Assert.assertEquals("Other", second.getTextBody());
+    }
+
+    @Test
+    public void testVelocityStreamedSharedContext() {
+        // Copying the shared base for the deferred body would iterate it
+        Map<String, Object> shared = new HashMap<>(Map.of("brand", "Seam")) {
+            @Override
+            public Set<Entry<String, Object>> entrySet() {
+                throw new UnsupportedOperationException("Shared context copied");
+            }
+        };
+
+        MailMessageImpl m = new MailMessageImpl(message -> message);
+        m.to(toAddress).sharedContext(shared).put("name", "Seamy").streamHtml(true).bodyHtml(new VelocityTemplate("<p>$brand $name</p>"));
+        EmailMessage e = m.mergeTemplates();
+        m.put("name", "Changed");
+        e.renderDeferredHtmlBody();
+
+        Assert.assertEquals("<p>Seam Seamy</p>", e.getHtmlBody());
+    }
+
+    @Test
+    public void testVelocityParallelMerge() {
+        EmailMessage sequential = parallelMergeMessage().parallelMerge(false).send();
+        EmailMessage parallel = parallelMergeMessage().parallelMerge(true).send();
+
+        Assert.assertEquals("Hello Seamy", parallel.getSubject());
+        Assert.assertEquals(sequential.getSubject(), parallel.getSubject());
+        Assert.assertEquals(sequential.getHtmlBody(), parallel.getHtmlBody());
+        Assert.assertEquals(sequential.getTextBody(), parallel.getTextBody());
+        Assert.assertTrue(parallel.getTextBody().contains("Dear Seamy"));
+    }
+
+    private MailMessageImpl parallelMergeMessage() {
+        MailMessageImpl message = new MailMessageImpl(m -> m);
+        message.to(toAddress).put("name", "Seamy").createTextAlternative(true).subject(new VelocityTemplate("#set($greeting = \"Hello\")$greeting $name"))
+                .bodyHtml(new VelocityTemplate("<p>Dear $name,</p><p>From the <b>HTML</b> body</p>"));
+        return message;
+    }
+
     @Test(expected = SendFailedException.class)
     public void testVelocityTextMailMessageSendFailed() throws IOException {
         SessionConfig mailConfig = TestMailConfigs.standardConfig();
@@ -0,0 +1,52 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email;
+
+import co.cfly.email.impl.util.WeightedLruCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WeightedLruCacheTest {
+
+    @Test
+    public void evictsByWeight() {
+        WeightedLruCache<Integer, String> cache = new WeightedLruCache<>(16 * 100, String::length);
+
+        for (int n = 0; n < 1000; n++) {
+            cache.put(n % 150, "x".repeat(n % 150));
+        }
+        Assert.assertTrue("Cached weight " + cache.getWeight(), cache.getWeight() <= 16 * 100);
+        Assert.assertTrue(cache.size() > 0);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        // Ten characters per stripe, multiples of 16 share a stripe
+        WeightedLruCache<Integer, String> cache = new WeightedLruCache<>(16 * 10, String::length);
+
+        cache.put(0, "aaaa");
+        cache.put(16, "bbbb");
+        Assert.assertEquals("aaaa", cache.get(0));
+        cache.put(32, "cccc");
+
+        Assert.assertEquals("aaaa", cache.get(0));
+        Assert.assertNull(cache.get(16));
+        Assert.assertEquals("cccc", cache.get(32));
+        Assert.assertEquals(8, cache.getWeight());
+
+        // Heavier than a stripe, not cached and nothing evicted
+        cache.put(48, "d".repeat(11));
+        Assert.assertNull(cache.get(48));
+        Assert.assertEquals(2, cache.size());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import co.cfly.email.api.AddressResult;
+import co.cfly.email.api.InvalidAddressException;
+import co.cfly.email.impl.util.AddressParser;
+import co.cfly.email.impl.util.MailUtility;
+import jakarta.mail.internet.InternetAddress;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares validating a dirty import, one address in ten invalid, by throwing {@link InvalidAddressException} against the
+ * result returning {@link MailUtility#validateAddress(String)}. Both use {@link AddressParser}, so the difference is the
+ * cost of the exceptions alone.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=co.cfly.email.benchmark.AddressValidationBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressValidationBenchmark {
+
+    private String[] addresses;
+
+    @Setup
+    public void setup() {
+        addresses = new String[1000];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = i % 10 == 0 ? "user " + i + " @example.com" : "User " + i + " <user" + i + "@example.com>";
+        }
+    }
+
+    @Benchmark
+    public void throwing(Blackhole blackhole) {
+        for (String address : addresses) {
+            try {
+                blackhole.consume(parseOrThrow(address));
+            }
+            catch (InvalidAddressException e) {
+                blackhole.consume(e.getMessage());
+            }
+        }
+    }
+
+    @Benchmark
+    public void resultReturning(Blackhole blackhole) {
+        for (String address : addresses) {
+            AddressResult result = MailUtility.validateAddress(address);
+            blackhole.consume(result.isValid() ? result.getAddress() : result.getError());
+        }
+    }
+
+    private static InternetAddress parseOrThrow(String address) {
+        AddressParser parser = new AddressParser();
+        InternetAddress internetAddress = parser.parse(address);
+        if (internetAddress == null) {
+            throw new InvalidAddressException("Must be in format of a@b.com or Name<a@b.com> but was: \"" + address + "\"; " + parser.getError());
+        }
+        return internetAddress;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(AddressValidationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import co.cfly.email.impl.util.HtmlToPlainText;
+import com.google.common.io.Resources;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures {@link HtmlToPlainText#convert(String)} on the HTML test template and on a newsletter sized document with
+ * long paragraphs that need wrapping and many links. Run with {@code -prof gc} to see allocation per conversion.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=co.cfly.email.benchmark.HtmlToTextBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HtmlToTextBenchmark {
+
+    private String template;
+    private String newsletter;
+
+    @Setup
+    public void setup() throws IOException {
+        template = Resources.asCharSource(Resources.getResource("template.html.velocity"), StandardCharsets.UTF_8).read();
+
+        StringBuilder sb = new StringBuilder("<html><head><title>Newsletter</title></head><body><h1>This month</h1>");
+        for (int i = 0; i < 50; i++) {
+            sb.append("<h2>Story ").append(i).append("</h2><p>").append("Lorem ipsum dolor sit amet, consectetur adipiscing elit. ".repeat(8))
+                    .append("<a href=\"https://example.com/story/").append(i).append("\">Read more</a></p><ul><li>First point</li><li>Second <b>point</b></li></ul>");
+        }
+        newsletter = sb.append("<div>Unsubscribe <a href=\"https://example.com/unsubscribe\">here</a></div></body></html>").toString();
+    }
+
+    @Benchmark
+    public String template() {
+        return HtmlToPlainText.convert(template);
+    }
+
+    @Benchmark
+    public String newsletter() {
+        return HtmlToPlainText.convert(newsletter);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(HtmlToTextBenchmark.class.getSimpleName()).build()).run();
+    }
+}
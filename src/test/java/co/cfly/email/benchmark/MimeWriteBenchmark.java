@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import co.cfly.email.api.ContentDisposition;
+import co.cfly.email.api.EmailMessage;
+import co.cfly.email.impl.MailMessageImpl;
+import co.cfly.email.impl.StreamingMimeWriter;
+import co.cfly.email.impl.util.MailUtility;
+import co.cfly.email.util.TestMailConfigs;
+import com.google.common.io.Resources;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares writing an HTML message with a text alternative, an inline image and an attachment through the jakarta.mail
+ * object graph against {@link StreamingMimeWriter}. Run with {@code -prof gc} to see allocation per message.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=co.cfly.email.benchmark.MimeWriteBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MimeWriteBenchmark {
+
+    private Session session;
+    private StreamingMimeWriter writer;
+    private EmailMessage message;
+
+    @Setup
+    public void setup() throws IOException {
+        session = MailUtility.createSession(TestMailConfigs.standardConfig());
+        writer = new StreamingMimeWriter(session);
+        String html = Resources.asCharSource(Resources.getResource("template.html.velocity"), StandardCharsets.UTF_8).read();
+        message = new MailMessageImpl(m -> m).from("Seam Seamerson <seam@domain.test>").to("seamy@domain.test").subject("Monthly offers")
+                .bodyHtmlTextAlt(html, "Monthly offers\n".repeat(50)).addAttachment("logo.png", "image/png", ContentDisposition.INLINE, new byte[4096])
+                .addAttachment("offers.pdf", "application/pdf", ContentDisposition.ATTACHMENT, new byte[32 * 1024]).mergeTemplates();
+    }
+
+    @Benchmark
+    public void jakartaMail() throws IOException, MessagingException {
+        MailUtility.createMimeMessage(message, session).writeTo(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public String streaming() throws IOException {
+        return writer.writeTo(message, OutputStream.nullOutputStream());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MimeWriteBenchmark.class.getSimpleName()).build()).run();
+    }
+}
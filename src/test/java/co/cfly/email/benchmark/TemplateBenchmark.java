@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import co.cfly.email.Person;
+import co.cfly.email.api.ContentDisposition;
+import co.cfly.email.api.MailContext;
+import co.cfly.email.impl.attachments.BaseAttachment;
+import co.cfly.email.impl.templating.SimpleTemplate;
+import co.cfly.email.impl.templating.velocity.VelocityTemplate;
+import com.google.common.io.Resources;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares merging the HTML and text test templates with {@link VelocityTemplate} and {@link SimpleTemplate}. Both are
+ * compiled once in setup, so only the render is measured. Add {@code -prof gc} to compare allocation.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=co.cfly.email.benchmark.TemplateBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+
+    private VelocityTemplate velocityHtml;
+    private VelocityTemplate velocityText;
+    private SimpleTemplate simpleHtml;
+    private SimpleTemplate simpleText;
+    private Map<String, Object> context;
+
+    @Setup
+    public void setup() throws IOException {
+        velocityHtml = new VelocityTemplate(read("template.html.velocity"));
+        velocityText = new VelocityTemplate(read("template.text.velocity"));
+        simpleHtml = new SimpleTemplate(read("template.html.simple"), true);
+        simpleText = new SimpleTemplate(read("template.text.simple"));
+
+        BaseAttachment logo = new BaseAttachment("seamLogo.png", "image/png", ContentDisposition.INLINE, new byte[] { 1 });
+        context = new HashMap<>();
+        context.put("person", new Person("Seamy Seamington", "seamy@domain.test"));
+        context.put("version", "simple-email");
+        context.put("mailContext", new MailContext(Map.of("seamLogo.png", logo)));
+    }
+
+    @Benchmark
+    public void velocity(Blackhole blackhole) {
+        blackhole.consume(velocityHtml.merge(context));
+        blackhole.consume(velocityText.merge(context));
+    }
+
+    @Benchmark
+    public void simple(Blackhole blackhole) {
+        blackhole.consume(simpleHtml.merge(context));
+        blackhole.consume(simpleText.merge(context));
+    }
+
+    private static String read(String resource) throws IOException {
+        return Resources.asCharSource(Resources.getResource(resource), StandardCharsets.UTF_8).read();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TemplateBenchmark.class.getSimpleName()).build()).run();
+    }
+}
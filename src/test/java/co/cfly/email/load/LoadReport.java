@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.load;
+
+import java.util.Arrays;
+
+/**
+ * Summary of a {@link MailLoadGenerator} run
+ */
+public class LoadReport {
+
+    private final int sent;
+    private final int failed;
+    private final long elapsedNanos;
+    private final long[] sortedLatencyNanos;
+    private final long allocatedBytes;
+    private final long receivedMessages;
+
+    LoadReport(int sent, int failed, long elapsedNanos, long[] latencyNanos, long allocatedBytes, long receivedMessages) {
+        this.sent = sent;
+        this.failed = failed;
+        this.elapsedNanos = elapsedNanos;
+        this.sortedLatencyNanos = latencyNanos.clone();
+        Arrays.sort(this.sortedLatencyNanos);
+        this.allocatedBytes = allocatedBytes;
+        this.receivedMessages = receivedMessages;
+    }
+
+    public int getSent() {
+        return sent;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public long getReceivedMessages() {
+        return receivedMessages;
+    }
+
+    public double getMessagesPerSecond() {
+        return sent / (elapsedNanos / 1_000_000_000d);
+    }
+
+    /**
+     * Latency of the given percentile in milliseconds
+     *
+     * @param percentile between 0 and 1, eg 0.999
+     */
+    public double getLatencyMillis(double percentile) {
+        if (sortedLatencyNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sortedLatencyNanos.length) - 1;
+        return sortedLatencyNanos[Math.max(0, Math.min(index, sortedLatencyNanos.length - 1))] / 1_000_000d;
+    }
+
+    /**
+     * Bytes allocated by the sending threads per second
+     */
+    public double getAllocationRate() {
+        return allocatedBytes / (elapsedNanos / 1_000_000_000d);
+    }
+
+    public long getAllocatedBytesPerMessage() {
+        return sent == 0 ? 0 : allocatedBytes / sent;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("sent=%d failed=%d received=%d throughput=%.1f msg/s p50=%.2fms p99=%.2fms p999=%.2fms alloc=%.1f MB/s (%d B/msg)", sent, failed, receivedMessages,
+                getMessagesPerSecond(), getLatencyMillis(0.5), getLatencyMillis(0.99), getLatencyMillis(0.999), getAllocationRate() / (1024 * 1024), getAllocatedBytesPerMessage());
+    }
+}
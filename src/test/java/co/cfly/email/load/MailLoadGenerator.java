@@ -0,0 +1,253 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import co.cfly.email.api.ContentDisposition;
+import co.cfly.email.api.MailMessage;
+import co.cfly.email.api.TemplateProvider;
+import co.cfly.email.impl.BasicEmailContact;
+import co.cfly.email.impl.MailMessageImpl;
+import co.cfly.email.impl.SimpleMailConfig;
+import co.cfly.email.impl.templating.velocity.VelocityTemplate;
+import co.cfly.email.impl.util.MailUtility;
+import com.google.common.io.Resources;
+import jakarta.mail.Session;
+import org.subethamail.smtp.helper.SimpleMessageListener;
+import org.subethamail.smtp.helper.SimpleMessageListenerAdapter;
+import org.subethamail.smtp.server.SMTPServer;
+
+/**
+ * Drives {@link MailMessageImpl} sends against an in-process SMTP sink and reports throughput, latency percentiles and the
+ * allocation rate of the sending threads.
+ * <p>
+ * Run from the command line with {@code key=value} arguments, eg:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=co.cfly.email.load.MailLoadGenerator \
+ *     -Dexec.args="messages=50000 concurrency=32 bodySize=8192 templates=true attachmentRatio=0.1"
+ * </pre>
+ */
+public class MailLoadGenerator {
+
+    private static final String HTML_TEMPLATE = "<html><body><p><b>Dear $person,</b></p><p>$body</p><p>Sent by $version.</p></body></html>";
+
+    private int port = 25253;
+    private int concurrency = 8;
+    private int messages = 10_000;
+    private int warmupMessages = 500;
+    private int bodySize = 4 * 1024;
+    private boolean templates;
+    private double attachmentRatio;
+    private int attachmentSize = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        MailLoadGenerator generator = new MailLoadGenerator();
+
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            switch (pair[0]) {
+                case "port" -> generator.setPort(Integer.parseInt(pair[1]));
+                case "concurrency" -> generator.setConcurrency(Integer.parseInt(pair[1]));
+                case "messages" -> generator.setMessages(Integer.parseInt(pair[1]));
+                case "warmup" -> generator.setWarmupMessages(Integer.parseInt(pair[1]));
+                case "bodySize" -> generator.setBodySize(Integer.parseInt(pair[1]));
+                case "templates" -> generator.setTemplates(Boolean.parseBoolean(pair[1]));
+                case "attachmentRatio" -> generator.setAttachmentRatio(Double.parseDouble(pair[1]));
+                case "attachmentSize" -> generator.setAttachmentSize(Integer.parseInt(pair[1]));
+                default -> throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        System.out.println(generator.run());
+    }
+
+    public LoadReport run() throws InterruptedException, ExecutionException {
+        AtomicLong received = new AtomicLong();
+        SMTPServer server = new SMTPServer(new SimpleMessageListenerAdapter(new CountingListener(received)));
+        server.setPort(port);
+        server.setHostName("localhost");
+        server.setMaxConnections(Math.max(1000, concurrency * 2));
+        server.start();
+
+        try {
+            SimpleMailConfig mailConfig = new SimpleMailConfig();
+            mailConfig.setServerPort(port);
+            Session session = MailUtility.createSession(mailConfig);
+
+            Workload workload = new Workload();
+            runPhase(session, workload, warmupMessages, received);
+            received.set(0);
+            return runPhase(session, workload, messages, received);
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    private LoadReport runPhase(Session session, Workload workload, int count, AtomicLong received) throws InterruptedException, ExecutionException {
+        AtomicInteger remaining = new AtomicInteger(count);
+        AtomicInteger failed = new AtomicInteger();
+        long[] latencies = new long[count];
+        AtomicInteger latencyIndex = new AtomicInteger();
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(concurrency)) {
+            List<Future<Long>> workers = new ArrayList<>();
+            long start = System.nanoTime();
+
+            for (int i = 0; i < concurrency; i++) {
+                workers.add(executor.submit(() -> {
+                    long allocatedBefore = allocatedBytes();
+                    while (remaining.getAndDecrement() > 0) {
+                        long sendStart = System.nanoTime();
+                        try {
+                            workload.message(session).send();
+                        }
+                        catch (RuntimeException e) {
+                            failed.incrementAndGet();
+                        }
+                        latencies[latencyIndex.getAndIncrement()] = System.nanoTime() - sendStart;
+                    }
+                    return allocatedBytes() - allocatedBefore;
+                }));
+            }
+
+            long allocated = 0;
+            for (Future<Long> worker : workers) {
+                allocated += worker.get();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            return new LoadReport(count - failed.get(), failed.get(), elapsed, latencies, allocated, received.get());
+        }
+    }
+
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadMXBean) {
+            return threadMXBean.getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * Builds the messages for a run. Content is generated once so the run measures the mail pipeline, not the generator
+     */
+    private class Workload {
+        private final String body;
+        private final byte[] attachment;
+        private final TemplateProvider subjectTemplate;
+        private final TemplateProvider htmlTemplate;
+        private final TemplateProvider textTemplate;
+
+        Workload() {
+            StringBuilder sb = new StringBuilder(bodySize);
+            while (sb.length() < bodySize) {
+                sb.append("The quick brown fox jumps over the lazy dog. ");
+            }
+            body = sb.substring(0, bodySize);
+
+            attachment = new byte[attachmentSize];
+            ThreadLocalRandom.current().nextBytes(attachment);
+
+            try {
+                textTemplate = new VelocityTemplate(Resources.asCharSource(Resources.getResource("template.text.velocity"), StandardCharsets.UTF_8).read() + "\n$body");
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            subjectTemplate = new VelocityTemplate("Load test for $person.name");
+            htmlTemplate = new VelocityTemplate(HTML_TEMPLATE);
+        }
+
+        MailMessage message(Session session) {
+            MailMessage m = new MailMessageImpl(session).from("Load Generator <load@domain.test>").to("Recipient " + ThreadLocalRandom.current().nextInt(1000) + " <recipient@domain.test>");
+
+            if (templates) {
+                m.subject(subjectTemplate).bodyHtmlTextAlt(htmlTemplate, textTemplate)
+                        .put("person", new BasicEmailContact("recipient@domain.test", "Recipient")).put("version", "simple-email").put("body", body);
+            }
+            else {
+                m.subject("Load test").bodyText(body);
+            }
+
+            if (attachmentRatio > 0 && ThreadLocalRandom.current().nextDouble() < attachmentRatio) {
+                m.addAttachment("attachment.bin", "application/octet-stream", ContentDisposition.ATTACHMENT, attachment);
+            }
+            return m;
+        }
+    }
+
+    private static class CountingListener implements SimpleMessageListener {
+        private final AtomicLong received;
+
+        CountingListener(AtomicLong received) {
+            this.received = received;
+        }
+
+        @Override
+        public boolean accept(String from, String recipient) {
+            return true;
+        }
+
+        @Override
+        public void deliver(String from, String recipient, InputStream data) throws IOException {
+            data.transferTo(OutputStream.nullOutputStream());
+            received.incrementAndGet();
+        }
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public void setMessages(int messages) {
+        this.messages = messages;
+    }
+
+    public void setWarmupMessages(int warmupMessages) {
+        this.warmupMessages = warmupMessages;
+    }
+
+    public void setBodySize(int bodySize) {
+        this.bodySize = bodySize;
+    }
+
+    public void setTemplates(boolean templates) {
+        this.templates = templates;
+    }
+
+    public void setAttachmentRatio(double attachmentRatio) {
+        this.attachmentRatio = attachmentRatio;
+    }
+
+    public void setAttachmentSize(int attachmentSize) {
+        this.attachmentSize = attachmentSize;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.cfly.email.load;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MailLoadGeneratorTest {
+
+    @Test
+    public void smokeRun() throws Exception {
+        MailLoadGenerator generator = new MailLoadGenerator();
+        generator.setConcurrency(4);
+        generator.setWarmupMessages(20);
+        generator.setMessages(100);
+        generator.setTemplates(true);
+        generator.setAttachmentRatio(0.2);
+        generator.setAttachmentSize(1024);
+
+        LoadReport report = generator.run();
+
+        Assert.assertEquals(report.toString(), 100, report.getSent());
+        Assert.assertEquals(report.toString(), 100, report.getReceivedMessages());
+        Assert.assertTrue(report.getLatencyMillis(0.5) <= report.getLatencyMillis(0.999));
+        Assert.assertTrue(report.getMessagesPerSecond() > 0);
+    }
+}